@@ -0,0 +1,96 @@
+import java.lang.management.ManagementFactory;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the allocation and time cost of holding a query result as
+ * List<List<String>>, the way executeQueryAndReturnResult does, against a
+ * ResultTable. Each run builds a result shaped like the store and update
+ * queries (an int ID, a product name, a coordinate and a timestamp) and then
+ * reads every typed value back, parsing strings where the application does.
+ *
+ * Only the application side is measured: the String path is charged for the
+ * Strings the driver's getString hands back, the typed path for nothing the
+ * driver's getInt/getDouble/getTimestamp return as primitives.
+ *
+ */
+public class ResultTableBenchmark {
+
+    private static final String[] PRODUCTS = { "7up", "Pepsi", "Lemonade", "Brisk", "Donuts" };
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+
+        // warm up both paths before measuring
+        for (int i = 0; i < 5; i++) {
+            stringPath(rows);
+            tablePath(rows);
+        }
+
+        report("List<List<String>>", rows, runs, false);
+        report("ResultTable", rows, runs, true);
+    }// end main
+
+    private static void report(String name, int rows, int runs, boolean table) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        long checksum = 0;
+        long bytes = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        for (int i = 0; i < runs; i++) {
+            checksum += table ? tablePath(rows) : stringPath(rows);
+        }
+        long elapsed = System.nanoTime() - start;
+        bytes = threads.getThreadAllocatedBytes(thread) - bytes;
+
+        System.out.printf("%-20s %10.1f bytes/row %10.1f ns/row  (checksum %d)%n", name,
+                (double) bytes / ((long) rows * runs), (double) elapsed / ((long) rows * runs), checksum);
+    }// end report
+
+    // the current representation: every cell is a String, parsed again when read
+    private static long stringPath(int rows) {
+        List<List<String>> result = new ArrayList<List<String>>();
+        for (int i = 0; i < rows; i++) {
+            List<String> record = new ArrayList<String>();
+            record.add(String.valueOf(i % 1000));
+            record.add(PRODUCTS[i % PRODUCTS.length]);
+            record.add(String.valueOf(i * 0.001));
+            record.add(new Timestamp(1473512460000L + i * 60000L).toString());
+            result.add(record);
+        }
+
+        long checksum = 0;
+        for (List<String> record : result) {
+            checksum += Integer.parseInt(record.get(0));
+            checksum += (long) Double.parseDouble(record.get(2));
+            checksum += Timestamp.valueOf(record.get(3)).getTime() & 0xff;
+        }
+        return checksum;
+    }// end stringPath
+
+    // the typed representation: primitives go straight into column arrays
+    private static long tablePath(int rows) {
+        ResultTable result = new ResultTable(new String[] { "storeid", "productname", "latitude", "updatedon" },
+                new int[] { ResultTable.INT, ResultTable.STRING, ResultTable.DOUBLE, ResultTable.TIMESTAMP });
+        for (int i = 0; i < rows; i++) {
+            int row = result.addRow();
+            result.setInt(row, 0, i % 1000);
+            result.setString(row, 1, PRODUCTS[i % PRODUCTS.length]);
+            result.setDouble(row, 2, i * 0.001);
+            result.setTimestampMillis(row, 3, 1473512460000L + i * 60000L);
+        }
+
+        long checksum = 0;
+        for (int i = 0; i < result.rowCount(); i++) {
+            checksum += result.getInt(i, 0);
+            checksum += (long) result.getDouble(i, 2);
+            checksum += result.getTimestampMillis(i, 3) & 0xff;
+        }
+        return checksum;
+    }// end tablePath
+
+}// end ResultTableBenchmark
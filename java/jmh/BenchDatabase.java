@@ -0,0 +1,30 @@
+import java.sql.SQLException;
+
+/**
+ * Opens the database the JMH benchmarks run against. The database is chosen
+ * with the system properties bench.db, bench.port and bench.user, which
+ * default to the course database of the current user on port 5432. Forked
+ * benchmark JVMs inherit the properties from the JMH command line.
+ *
+ */
+final class BenchDatabase {
+
+    private BenchDatabase() {
+    }
+
+    static Amazon open() throws SQLException {
+        String user = System.getProperty("bench.user", System.getProperty("user.name"));
+        String dbname = System.getProperty("bench.db", user + "_project_phase_3_DB");
+        String port = System.getProperty("bench.port", "5432");
+        return new Amazon(dbname, port, user, "");
+    }// end open
+
+    // returns the first column of the first row, failing when there is none
+    static int queryInt(Amazon esql, String sql, Object... params) throws SQLException {
+        ResultTable result = esql.executeQueryAndReturnTable(sql, params);
+        if (result.rowCount() == 0)
+            throw new IllegalStateException("No benchmark data for: " + sql);
+        return result.getInt(0, 0);
+    }// end queryInt
+
+}// end BenchDatabase
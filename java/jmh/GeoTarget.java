@@ -0,0 +1,68 @@
+import java.util.Random;
+
+/**
+ * The code bench.GeoBenchmark times. Stores are spread uniformly over the
+ * 100 x 100 area the bundled data uses; the customer position changes on
+ * every call so results are not served from one warm grid cell. The index
+ * returns its matches closest first; the linear scan only collects them.
+ *
+ */
+public class GeoTarget implements bench.GeoBenchmark.Target {
+
+    private int stores;
+    private int[] ids;
+    private double[] lats;
+    private double[] longs;
+    private SpatialIndex index;
+
+    // customer positions, cycled through by the benchmarks
+    private double[] userLats;
+    private double[] userLongs;
+    private int next = 0;
+
+    public void setup(int stores) {
+        Random random = new Random(42);
+        this.stores = stores;
+        this.ids = new int[stores];
+        this.lats = new double[stores];
+        this.longs = new double[stores];
+        this.index = new SpatialIndex();
+        for (int i = 0; i < stores; i++) {
+            this.ids[i] = i + 1;
+            this.lats[i] = random.nextDouble() * 100;
+            this.longs[i] = random.nextDouble() * 100;
+            this.index.add(this.ids[i], this.lats[i], this.longs[i]);
+        }
+
+        this.userLats = new double[1024];
+        this.userLongs = new double[1024];
+        for (int i = 0; i < this.userLats.length; i++) {
+            this.userLats[i] = random.nextDouble() * 100;
+            this.userLongs[i] = random.nextDouble() * 100;
+        }
+    }// end setup
+
+    public double calculateDistance() {
+        int i = this.next++ & 1023;
+        int s = i % this.stores;
+        return Amazon.calculateDistance(this.userLats[i], this.userLongs[i], this.lats[s], this.longs[s]);
+    }
+
+    // the filter viewStores ran before the spatial index: every store is checked
+    public int radiusLinearScan() {
+        int i = this.next++ & 1023;
+        int checksum = 0;
+        for (int s = 0; s < this.stores; s++) {
+            double distance = Amazon.calculateDistance(this.userLats[i], this.userLongs[i], this.lats[s], this.longs[s]);
+            if (distance < Amazon.MAX_STORE_DISTANCE)
+                checksum += this.ids[s];
+        }
+        return checksum;
+    }// end radiusLinearScan
+
+    public Object radiusIndex() {
+        int i = this.next++ & 1023;
+        return this.index.within(this.userLats[i], this.userLongs[i], Amazon.MAX_STORE_DISTANCE);
+    }
+
+}// end GeoTarget
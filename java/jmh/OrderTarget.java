@@ -0,0 +1,88 @@
+import java.sql.SQLException;
+
+/**
+ * The code bench.OrderBenchmark times: the order placement path of
+ * placeOrder, that is the store distance check through the spatial index
+ * from the session's coordinates, the stock lookup and submitOrder, which
+ * checks, decrements the stock and records the order in one round trip.
+ *
+ * Orders one unit at a time for a customer and a stocked store within range
+ * of each other. The stock is topped up before each iteration so every order
+ * succeeds, and the orders placed and the original stock are restored when
+ * the run ends.
+ *
+ */
+public class OrderTarget implements bench.OrderBenchmark.Target {
+
+    private static final int STOCK = 1000000;
+
+    private Amazon esql;
+    private int customerID;
+    private Session session;
+    private int storeID;
+    private String productName;
+    private int originalStock;
+    private int lastOrderNumber;
+
+    public void open() throws SQLException {
+        this.esql = BenchDatabase.open();
+
+        // the first customer with a stocked store in range
+        ResultTable customers = this.esql.executeQueryAndReturnTable(
+                "SELECT userID, latitude, longitude FROM Users WHERE type = 'customer' ORDER BY userID");
+        SpatialIndex index = this.esql.getStoreIndex();
+        for (int i = 0; i < customers.rowCount() && this.productName == null; i++) {
+            SpatialIndex.Result nearby = index.within(customers.getDouble(i, 1), customers.getDouble(i, 2),
+                    Amazon.MAX_STORE_DISTANCE);
+            for (int s = 0; s < nearby.size && this.productName == null; s++) {
+                ResultTable products = this.esql.executeQueryAndReturnTable(
+                        "SELECT productName, numberOfUnits FROM Product WHERE storeID = ? ORDER BY productName LIMIT 1",
+                        nearby.ids[s]);
+                if (products.rowCount() > 0) {
+                    this.customerID = customers.getInt(i, 0);
+                    this.storeID = nearby.ids[s];
+                    this.productName = products.getString(0, 0).trim();
+                    this.originalStock = products.getInt(0, 1);
+                }
+            }
+        }
+        if (this.productName == null)
+            throw new IllegalStateException("No customer has a stocked store within range");
+
+        this.session = Session.load(this.esql, this.customerID);
+        this.lastOrderNumber = BenchDatabase.queryInt(this.esql, "SELECT coalesce(max(orderNumber), 0) FROM Orders");
+    }// end open
+
+    public void restock() throws SQLException {
+        this.esql.executeUpdate("UPDATE Product SET numberOfUnits = ? WHERE storeID = ? AND productName = ?",
+                STOCK, this.storeID, this.productName);
+    }
+
+    public void close() throws SQLException {
+        try {
+            this.esql.executeUpdate("DELETE FROM Orders WHERE customerID = ? AND orderNumber > ?",
+                    this.customerID, this.lastOrderNumber);
+            this.esql.executeUpdate("UPDATE Product SET numberOfUnits = ? WHERE storeID = ? AND productName = ?",
+                    this.originalStock, this.storeID, this.productName);
+        } finally {
+            this.esql.cleanup();
+        }
+    }// end close
+
+    public int placeOrder() throws SQLException {
+        double distance = this.esql.getStoreIndex().distanceTo(this.storeID, this.session.getLatitude(),
+                this.session.getLongitude());
+        if (distance > Amazon.MAX_STORE_DISTANCE)
+            throw new IllegalStateException("Store " + this.storeID + " is out of range");
+
+        ResultTable products = this.esql.getCatalogCache().products(this.storeID);
+        if (CatalogCache.find(products, this.productName) < 0)
+            throw new IllegalStateException("Store " + this.storeID + " does not sell " + this.productName);
+
+        int orderNumber = this.esql.submitOrder(this.customerID, this.storeID, this.productName, 1);
+        if (orderNumber < 0)
+            throw new IllegalStateException(Amazon.describeOrderResult(orderNumber));
+        return orderNumber;
+    }// end placeOrder
+
+}// end OrderTarget
@@ -0,0 +1,61 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The code bench.RecentUpdatesBenchmark times. The first operation is the
+ * way viewRecentUpdates used to find the newest updates: one query per
+ * store, every update read as Strings and sorted in Java by parsing the
+ * timestamps. The second is the single top-K query of RecentActivity the
+ * menu uses now. Both run for the manager with the most stores.
+ *
+ */
+public class RecentUpdatesTarget implements bench.RecentUpdatesBenchmark.Target {
+
+    private static final Comparator<List<String>> NEWEST_FIRST = new Comparator<List<String>>() {
+        public int compare(List<String> one, List<String> two) {
+            return Timestamp.valueOf(two.get(2)).compareTo(Timestamp.valueOf(one.get(2)));
+        }
+    };
+
+    private Amazon esql;
+    private RecentActivity recent;
+    private int managerID;
+
+    public void open() throws SQLException {
+        this.esql = BenchDatabase.open();
+        this.recent = this.esql.getRecentActivity();
+        this.managerID = BenchDatabase.queryInt(this.esql,
+                "SELECT managerID FROM Store GROUP BY managerID ORDER BY count(*) DESC LIMIT 1");
+    }// end open
+
+    public Object perStoreSort() throws SQLException {
+        List<List<String>> stores = this.esql.executeQueryAndReturnResult(
+                "SELECT storeID FROM Store WHERE managerID = ?", this.managerID);
+
+        List<List<String>> updates = new ArrayList<List<String>>();
+        for (List<String> store : stores) {
+            int storeID = Integer.parseInt(store.get(0).trim());
+            List<List<String>> storeUpdates = this.esql.executeQueryAndReturnResult(
+                    "SELECT productName, updatedOn FROM ProductUpdates WHERE storeID = ? ORDER BY updatedOn", storeID);
+            for (List<String> update : storeUpdates) {
+                update.add(0, String.valueOf(storeID));
+            }
+            updates.addAll(storeUpdates);
+        }
+
+        updates.sort(NEWEST_FIRST);
+        return updates.subList(0, Math.min(this.recent.getLimit(), updates.size()));
+    }// end perStoreSort
+
+    public Object topK() throws SQLException {
+        return this.recent.recentUpdates(this.managerID);
+    }
+
+    public void close() {
+        this.esql.cleanup();
+    }
+
+}// end RecentUpdatesTarget
@@ -0,0 +1,33 @@
+import java.sql.SQLException;
+
+/**
+ * The code bench.ResultMappingBenchmark times: reading every order with
+ * executeQueryAndReturnResult, which keeps every cell as a String, and with
+ * executeQueryAndReturnTable. The time includes the round trip, which shows
+ * how much of it is spent on the Java side.
+ *
+ */
+public class ResultMappingTarget implements bench.ResultMappingBenchmark.Target {
+
+    static final String ORDERS_SQL =
+            "SELECT orderNumber, customerID, storeID, productName, unitsOrdered, orderTime FROM Orders";
+
+    private Amazon esql;
+
+    public void open() throws SQLException {
+        this.esql = BenchDatabase.open();
+    }
+
+    public Object stringRows() throws SQLException {
+        return this.esql.executeQueryAndReturnResult(ORDERS_SQL);
+    }
+
+    public Object resultTable() throws SQLException {
+        return this.esql.executeQueryAndReturnTable(ORDERS_SQL);
+    }
+
+    public void close() {
+        this.esql.cleanup();
+    }
+
+}// end ResultMappingTarget
@@ -0,0 +1,67 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks calculateDistance and the store radius filter of viewStores,
+ * both as a linear scan over every store and through the SpatialIndex the
+ * application uses. Implemented by GeoTarget; needs no database.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeoBenchmark {
+
+    public interface Target {
+        void setup(int stores);
+
+        double calculateDistance();
+
+        int radiusLinearScan();
+
+        Object radiusIndex();
+    }// end Target
+
+    @Param({ "1000", "100000" })
+    public int stores;
+
+    private Target target;
+
+    @Setup
+    public void setup() {
+        this.target = Targets.load("GeoTarget", Target.class);
+        this.target.setup(this.stores);
+    }
+
+    @Benchmark
+    public double calculateDistance() {
+        return this.target.calculateDistance();
+    }
+
+    @Benchmark
+    public int radiusLinearScan() {
+        return this.target.radiusLinearScan();
+    }
+
+    @Benchmark
+    public Object radiusIndex() {
+        return this.target.radiusIndex();
+    }
+
+}// end GeoBenchmark
@@ -0,0 +1,66 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the order placement path of placeOrder. Implemented by
+ * OrderTarget against the database chosen in BenchDatabase, which it
+ * modifies while running and restores at the end.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OrderBenchmark {
+
+    public interface Target {
+        void open() throws Exception;
+
+        void restock() throws Exception;
+
+        int placeOrder() throws Exception;
+
+        void close() throws Exception;
+    }// end Target
+
+    private Target target;
+
+    @Setup
+    public void setup() throws Exception {
+        this.target = Targets.load("OrderTarget", Target.class);
+        this.target.open();
+    }
+
+    // tops up the stock so every order of the iteration succeeds
+    @Setup(Level.Iteration)
+    public void restock() throws Exception {
+        this.target.restock();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.target.close();
+    }
+
+    @Benchmark
+    public int placeOrder() throws Exception {
+        return this.target.placeOrder();
+    }
+
+}// end OrderBenchmark
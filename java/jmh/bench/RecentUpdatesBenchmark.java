@@ -0,0 +1,65 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks finding the newest product updates of a manager: the per-store
+ * queries and Java sort viewRecentUpdates used to run, against the single
+ * top-K query of RecentActivity. Implemented by RecentUpdatesTarget against
+ * the database chosen in BenchDatabase.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecentUpdatesBenchmark {
+
+    public interface Target {
+        void open() throws Exception;
+
+        Object perStoreSort() throws Exception;
+
+        Object topK() throws Exception;
+
+        void close() throws Exception;
+    }// end Target
+
+    private Target target;
+
+    @Setup
+    public void setup() throws Exception {
+        this.target = Targets.load("RecentUpdatesTarget", Target.class);
+        this.target.open();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.target.close();
+    }
+
+    @Benchmark
+    public Object perStoreSort() throws Exception {
+        return this.target.perStoreSort();
+    }
+
+    @Benchmark
+    public Object topK() throws Exception {
+        return this.target.topK();
+    }
+
+}// end RecentUpdatesBenchmark
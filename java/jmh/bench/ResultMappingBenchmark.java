@@ -0,0 +1,64 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks mapping a query result into memory: executeQueryAndReturnResult
+ * against executeQueryAndReturnTable. Implemented by ResultMappingTarget
+ * against the database chosen in BenchDatabase.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResultMappingBenchmark {
+
+    public interface Target {
+        void open() throws Exception;
+
+        Object stringRows() throws Exception;
+
+        Object resultTable() throws Exception;
+
+        void close() throws Exception;
+    }// end Target
+
+    private Target target;
+
+    @Setup
+    public void setup() throws Exception {
+        this.target = Targets.load("ResultMappingTarget", Target.class);
+        this.target.open();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.target.close();
+    }
+
+    @Benchmark
+    public Object stringRows() throws Exception {
+        return this.target.stringRows();
+    }
+
+    @Benchmark
+    public Object resultTable() throws Exception {
+        return this.target.resultTable();
+    }
+
+}// end ResultMappingBenchmark
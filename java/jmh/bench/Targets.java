@@ -0,0 +1,25 @@
+package bench;
+
+/**
+ * Loads the code a benchmark measures. JMH only accepts benchmark classes in
+ * a named package, and a named package cannot refer to the application's
+ * classes in the default package, so each benchmark declares the operations
+ * it times as an interface and a default package class implements it. The
+ * class is looked up by name once, during setup; the timed calls are plain
+ * interface calls.
+ *
+ */
+final class Targets {
+
+    private Targets() {
+    }
+
+    static <T> T load(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot load benchmark target " + className, e);
+        }
+    }// end load
+
+}// end Targets
@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the application and the benchmarks
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java $DIR/../bench/*.java
+
+#run the result container benchmark
+#Optional arguments: <rows> <runs>
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ResultTableBenchmark "$@"
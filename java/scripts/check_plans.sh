@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#check the query plans of the application
+#Use your database name, port number and login
+#Pass --natural to check with the planner's normal settings on a scaled dataset
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanCheck $USER"_project_phase_3_DB" $PGPORT $USER "$@"
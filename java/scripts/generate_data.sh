@@ -0,0 +1,14 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#write a synthetic dataset into a directory, then replace the database contents with it
+#Use your database name, port number and login
+#Optional arguments: scale=N seed=N products=N days=N zipf=s
+OUT=$1
+shift
+java -cp $DIR/../classes DataGenerator $OUT "$@" &&
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar CsvLoader $USER"_project_phase_3_DB" $PGPORT $USER $OUT truncate=true
@@ -0,0 +1,31 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+# JMH and its dependencies, fetched from Maven Central the first time
+JMH_VERSION=1.37
+JMH_LIB=$DIR/../lib/jmh
+MAVEN=https://repo1.maven.org/maven2
+mkdir -p $JMH_LIB
+for jar in org/openjdk/jmh/jmh-core/$JMH_VERSION/jmh-core-$JMH_VERSION.jar \
+           org/openjdk/jmh/jmh-generator-annprocess/$JMH_VERSION/jmh-generator-annprocess-$JMH_VERSION.jar \
+           net/sf/jopt-simple/jopt-simple/5.0.4/jopt-simple-5.0.4.jar \
+           org/apache/commons/commons-math3/3.6.1/commons-math3-3.6.1.jar; do
+    if [ ! -f $JMH_LIB/$(basename $jar) ]; then
+        curl -sSf -o $JMH_LIB/$(basename $jar) $MAVEN/$jar || exit 1
+    fi
+done
+CP=$DIR/../lib/pg73jdbc3.jar:$(ls $JMH_LIB/*.jar | tr '\n' ':')
+
+# compile the application and the benchmarks; the JMH annotation processor
+# generates the benchmark harness next to them
+rm -rf $DIR/../jmh-classes
+mkdir -p $DIR/../jmh-classes
+javac -cp $CP -d $DIR/../jmh-classes $DIR/../src/*.java $DIR/../jmh/*.java $DIR/../jmh/bench/*.java || exit 1
+
+#run the benchmarks, writing the results as JSON
+#Use your database name, port number and login for the database benchmarks
+#Optional arguments are passed to JMH, e.g. a benchmark name pattern such as Geo
+mkdir -p $DIR/../jmh-results
+java -Dbench.db=$USER"_project_phase_3_DB" -Dbench.port=$PGPORT -Dbench.user=$USER \
+    -cp $DIR/../jmh-classes:$CP org.openjdk.jmh.Main \
+    -rf json -rff $DIR/../jmh-results/jmh-$(date +%Y%m%d-%H%M%S).json "$@"
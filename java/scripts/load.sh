@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#run the load generator against the data the database was loaded from
+#Use your database name, port number and login
+#Optional arguments: customers=N managers=N seconds=N think=ms seed=N mix=operation:weight,...
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar LoadGenerator $USER"_project_phase_3_DB" $PGPORT $USER $DIR/../../data "$@"
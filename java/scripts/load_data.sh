@@ -0,0 +1,13 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#load the csv files of a directory, data/ by default
+#Use your database name, port number and login
+#Optional arguments: threads=N chunk=rows errors=file truncate=true
+DATA=${1:-$DIR/../../data}
+shift
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar CsvLoader $USER"_project_phase_3_DB" $PGPORT $USER $DATA "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#create the monthly partitions of Orders and ProductUpdates for the coming months
+#Use your database name, port number and login
+#Optional arguments: ahead=N archive=yyyy-mm-dd (detach the months before that day)
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PartitionMaintenance $USER"_project_phase_3_DB" $PGPORT $USER "$@"
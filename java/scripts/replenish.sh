@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#request supplies for every product running low, from the warehouse nearest its store
+#Use your database name, port number and login
+#Optional arguments: threshold=N target=N dryrun=true
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar ReplenishmentPlanner $USER"_project_phase_3_DB" $PGPORT $USER "$@"
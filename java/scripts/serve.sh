@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -cp $DIR/../lib/pg73jdbc3.jar -d $DIR/../classes $DIR/../src/*.java
+
+#run the HTTP/JSON service
+#Use your database name, port number and login
+#Optional arguments: <http port> <pool size>
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar AmazonServer $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -10,20 +10,22 @@
  *
  */
 
-import java.sql.DriverManager;
-import java.sql.Connection;
-import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.Timestamp;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.io.IOException;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.lang.Math;
+import javax.management.JMException;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -32,9 +34,90 @@ import java.lang.Math;
  */
 public class Amazon {
 
-    // reference to physical database connection.
-    private Connection _connection = null;
-    private int orderNum = 501; // Order number starts at 501 because there are already 500 orders in the table
+    // pool of physical database connections shared by all operations.
+    private ConnectionPool _pool = null;
+
+    // answers the recent orders and recent updates reports.
+    private RecentActivity _recent = new RecentActivity(this);
+
+    // answers the nearest in-stock stores search.
+    private ProductSearch _search = new ProductSearch(this);
+
+    // in-memory grid over store coordinates, loaded on first use.
+    private SpatialIndex _storeIndex = null;
+
+    // product lists of recently viewed stores.
+    private CatalogCache _catalog = new CatalogCache(this);
+
+    // latency, rows and errors of every statement the helpers below run.
+    private final QueryMetrics _metrics = new QueryMetrics();
+
+    // runs independent queries concurrently, started on first use.
+    private int _poolSize;
+    private AsyncQueryExecutor _async = null;
+
+    // bumped whenever this application adds stores, so sessions read
+    // before that know to refresh their managed stores.
+    private volatile long _storeVersion = 0;
+
+    // queries issued by the menu operations, also checked by PlanCheck.
+    // char columns are compared with ?::bpchar, see StatementCache.
+    // a session is one row per managed store, or one row with a null storeID
+    static final String LOGIN_SQL =
+            "SELECT u.userID, u.name, u.latitude, u.longitude, u.type, s.storeID "
+            + "FROM Users u LEFT JOIN Store s ON s.managerID = u.userID "
+            + "WHERE u.name = ?::bpchar AND u.password = ?::bpchar ORDER BY u.userID, s.storeID";
+    static final String SESSION_SQL =
+            "SELECT u.userID, u.name, u.latitude, u.longitude, u.type, s.storeID "
+            + "FROM Users u LEFT JOIN Store s ON s.managerID = u.userID "
+            + "WHERE u.userID = ? ORDER BY s.storeID";
+    static final String STORE_PRODUCTS_SQL =
+            "SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = ?";
+    static final String PRODUCT_STOCK_SQL =
+            "SELECT numberOfUnits FROM Product WHERE storeID = ? AND productName = ?::bpchar";
+    static final String POPULAR_PRODUCTS_SQL =
+            "SELECT productName, totalUnits FROM StoreProductSales WHERE storeID = ? ORDER BY totalUnits DESC LIMIT 5";
+    static final String POPULAR_CUSTOMERS_SQL =
+            "SELECT u.userID, u.name, c.orderCount FROM StoreCustomerOrders c JOIN Users u ON u.userID = c.customerID WHERE c.storeID = ? ORDER BY c.orderCount DESC LIMIT 5";
+
+    // writes issued by the manager operations.
+    static final String UPDATE_PRODUCT_SQL =
+            "UPDATE Product SET numberOfUnits = ?, pricePerUnit = ? WHERE storeID = ? AND productName = ?::bpchar";
+    static final String LOG_PRODUCT_UPDATE_SQL =
+            "INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES (?, ?, ?, ?)";
+    static final String SUPPLY_REQUEST_SQL =
+            "INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested) VALUES (?, ?, ?, ?, ?)";
+    static final String RESTOCK_SQL =
+            "UPDATE Product SET numberOfUnits = numberOfUnits + ? WHERE storeID = ? AND productName = ?::bpchar";
+
+    // number of rows streamed queries read from the server at a time.
+    public static final int FETCH_SIZE = 500;
+
+    // the cursor executeQueryAndStream reads through, one per connection at a time.
+    private static final String STREAM_CURSOR = "amazon_stream";
+
+    // headings of the rows OrderBrowser returns
+    static final String[] ORDER_LABELS =
+            { "Order ID", "Name", "Store ID", "Product name", "Units ordered", "Date ordered" };
+
+    // customers can only see and order from stores within this distance.
+    public static final double MAX_STORE_DISTANCE = 30;
+
+    // result codes returned by submitOrder when the order was not placed,
+    // matching the codes of the place_order database function.
+    public static final int ORDER_UNKNOWN_CUSTOMER = -1;
+    public static final int ORDER_UNKNOWN_STORE = -2;
+    public static final int ORDER_STORE_TOO_FAR = -3;
+    public static final int ORDER_UNKNOWN_PRODUCT = -4;
+    public static final int ORDER_NOT_ENOUGH_STOCK = -5;
+    public static final int ORDER_INVALID_UNITS = -6;
+
+    // names the menu choices are timed under in QueryMetrics, by choice
+    static final String[] START_OPERATIONS = { null, "CreateUser", "LogIn" };
+    static final String[] USER_OPERATIONS = {
+            null, "viewStores", "viewProducts", "placeOrder", "viewRecentOrders",
+            "updateProduct", "viewRecentUpdates", "viewPopularProducts", "viewPopularCustomers",
+            "placeProductSupplyRequests", "viewAllOrders", "restockLowProducts", "findProduct" };
 
     // handling the keyboard inputs through a BufferedReader
     // This variable can be global for convenience.
@@ -51,6 +134,20 @@ public class Amazon {
      * @throws java.sql.SQLException when failed to make a connection.
      */
     public Amazon(String dbname, String dbport, String user, String passwd) throws SQLException {
+        this(dbname, dbport, user, passwd, ConnectionPool.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a new instance of Amazon store backed by a connection pool
+     *
+     * @param dbname   the name of the database
+     * @param dbport   the port the PostgreSQL server listens on
+     * @param user     the user name used to login to the database
+     * @param passwd   the user login password
+     * @param poolSize the maximum number of open connections
+     * @throws java.sql.SQLException when failed to make a connection.
+     */
+    public Amazon(String dbname, String dbport, String user, String passwd, int poolSize) throws SQLException {
 
         System.out.print("Connecting to database...");
         try {
@@ -58,18 +155,29 @@ public class Amazon {
             String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
             System.out.println("Connection URL: " + url + "\n");
 
-            // obtain a physical connection
-            this._connection = DriverManager.getConnection(url, user, passwd);
+            // create the pool and check out one connection to make sure the
+            // database is reachable
+            this._poolSize = poolSize;
+            this._pool = new ConnectionPool(url, user, passwd, poolSize,
+                    ConnectionPool.DEFAULT_IDLE_TIMEOUT_MILLIS, ConnectionPool.DEFAULT_BORROW_TIMEOUT_MILLIS);
+            this._pool.borrow().close();
             System.out.println("Done");
         } catch (Exception e) {
             System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
             System.out.println("Make sure you started postgres on this machine");
             System.exit(-1);
         } // end catch
+
+        try {
+            this._metrics.register(dbname);
+        } catch (JMException e) {
+            // the metrics are still recorded, just not visible over JMX
+            System.err.println("Query metrics not registered with JMX: " + e.getMessage());
+        }
     }// end Amazon
     
     // Method to calculate euclidean distance between two latitude, longitude pairs.
-    public double calculateDistance(double lat1, double long1, double lat2, double long2) {
+    public static double calculateDistance(double lat1, double long1, double lat2, double long2) {
         double t1 = (lat1 - lat2) * (lat1 - lat2);
         double t2 = (long1 - long2) * (long1 - long2);
         return Math.sqrt(t1 + t2);
@@ -77,62 +185,46 @@ public class Amazon {
 
     /**
      * Method to execute an update SQL statement. Update SQL instructions
-     * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
+     * includes CREATE, INSERT, UPDATE, DELETE, and DROP. The SQL is a template
+     * whose '?' placeholders are filled with the given values, in order.
      *
-     * @param sql the input SQL string
+     * @param sql    the input SQL template
+     * @param params the values for the placeholders
+     * @return the number of rows affected
      * @throws java.sql.SQLException when update failed
      */
-    public void executeUpdate(String sql) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the update instruction
-        stmt.executeUpdate(sql);
-
-        // close the instruction
-        stmt.close();
+    public int executeUpdate(String sql, Object... params) throws SQLException {
+        QueryMetrics.Query timer = this._metrics.start(sql, params);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            // fetches the cached statement for this template and binds the values
+            PreparedStatement stmt = conn.prepare(sql, params);
+
+            // issues the update instruction
+            return timer.done(stmt.executeUpdate());
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
     }// end executeUpdate
 
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT). This
      * method issues the query to the DBMS and outputs the results to
-     * standard out.
+     * standard out as tab separated columns under a header line.
      *
-     * @param query the input query string
+     * @param query  the input query template
+     * @param params the values for the placeholders
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQueryAndPrintResult(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
-
-        /*
-         ** obtains the metadata object for the returned result set. The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int numCol = rsmd.getColumnCount();
-        int rowCount = 0;
-
-        // iterates through the result set and output them to standard out.
-        boolean outputHeader = true;
-        while (rs.next()) {
-            if (outputHeader) {
-                for (int i = 1; i <= numCol; i++) {
-                    System.out.print(rsmd.getColumnName(i) + "\t");
-                }
-                System.out.println();
-                outputHeader = false;
-            }
-            for (int i = 1; i <= numCol; ++i)
-                System.out.print(rs.getString(i) + "\t");
-            System.out.println();
-            ++rowCount;
-        } // end while
-        stmt.close();
+    public int executeQueryAndPrintResult(String query, Object... params) throws SQLException {
+        // rows go from the cursor through a buffered writer, flushed once at the end
+        ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT);
+        int rowCount = executeQueryAndStream(query, report, params);
+        try {
+            report.flush();
+        } catch (IOException e) {
+            throw new SQLException("Failed to print the result: " + e.getMessage());
+        }
         return rowCount;
     }// end executeQuery
 
@@ -141,101 +233,405 @@ public class Amazon {
      * method issues the query to the DBMS and returns the results as
      * a list of records. Each record in turn is a list of attribute values
      *
-     * @param query the input query string
+     * @param query  the input query template
+     * @param params the values for the placeholders
      * @return the query result as a list of records
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public List<List<String>> executeQueryAndReturnResult(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
-
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
-
-        /*
-         ** obtains the metadata object for the returned result set. The metadata
-         ** contains row and column info.
-         */
-        ResultSetMetaData rsmd = rs.getMetaData();
-        int numCol = rsmd.getColumnCount();
-        int rowCount = 0;
-
-        // iterates through the result set and saves the data returned by the query.
-        boolean outputHeader = false;
-        List<List<String>> result = new ArrayList<List<String>>();
-        while (rs.next()) {
-            List<String> record = new ArrayList<String>();
-            for (int i = 1; i <= numCol; ++i)
-                record.add(rs.getString(i));
-            result.add(record);
-        } // end while
-        stmt.close();
-        return result;
+    public List<List<String>> executeQueryAndReturnResult(String query, Object... params) throws SQLException {
+        QueryMetrics.Query timer = this._metrics.start(query, params);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            // fetches the cached statement for this template and binds the values
+            PreparedStatement stmt = conn.prepare(query, params);
+
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
+
+            /*
+             ** obtains the metadata object for the returned result set. The metadata
+             ** contains row and column info.
+             */
+            ResultSetMetaData rsmd = rs.getMetaData();
+            int numCol = rsmd.getColumnCount();
+
+            // iterates through the result set and saves the data returned by the query.
+            List<List<String>> result = new ArrayList<List<String>>();
+            while (rs.next()) {
+                List<String> record = new ArrayList<String>();
+                for (int i = 1; i <= numCol; ++i)
+                    record.add(rs.getString(i));
+                result.add(record);
+            } // end while
+            rs.close();
+            timer.done(result.size());
+            return result;
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
     }// end executeQueryAndReturnResult
 
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT). This
+     * method issues the query to the DBMS and returns the results as a
+     * ResultTable, which keeps each column in a typed primitive array so
+     * callers read ints, doubles and timestamps without parsing strings.
+     *
+     * @param query  the input query template
+     * @param params the values for the placeholders
+     * @return the query result as a typed table
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable executeQueryAndReturnTable(String query, Object... params) throws SQLException {
+        QueryMetrics.Query timer = this._metrics.start(query, params);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            // fetches the cached statement for this template and binds the values
+            PreparedStatement stmt = conn.prepare(query, params);
+
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
+            ResultTable result = ResultTable.fromResultSet(rs);
+            rs.close();
+            timer.done(result.rowCount());
+            return result;
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
+    }// end executeQueryAndReturnTable
+
+    /**
+     * Method to execute an input query SQL instruction (i.e. SELECT) and hand
+     * each row to a callback as it arrives, instead of collecting the whole
+     * result in memory. The query is declared as a cursor inside a
+     * transaction and read FETCH_SIZE rows at a time, so memory use stays
+     * constant however many rows match. The cursor is declared explicitly
+     * because the bundled driver does not implement setFetchSize. The
+     * handler's begin is called with the columns before the first row, also
+     * when no rows match.
+     *
+     * @param query   the input query template
+     * @param handler the callback receiving each row
+     * @param params  the values for the placeholders
+     * @return the number of rows returned
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int executeQueryAndStream(String query, RowHandler handler, Object... params) throws SQLException {
+        QueryMetrics.Query timer = this._metrics.start(query, params);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            // cursors only stay open inside a transaction; returning the
+            // connection to the pool ends it
+            conn.getConnection().setAutoCommit(false);
+
+            // not cached: a DECLARE cannot be prepared on the server
+            PreparedStatement declare = conn.getConnection().prepareStatement(
+                    "DECLARE " + STREAM_CURSOR + " NO SCROLL CURSOR FOR " + query);
+            StatementCache.bind(declare, params);
+            declare.execute();
+            declare.close();
+
+            Statement fetch = conn.getConnection().createStatement();
+            int rowCount = 0;
+            int fetched;
+            do {
+                // issues the query instruction
+                ResultSet rs = fetch.executeQuery("FETCH FORWARD " + FETCH_SIZE + " FROM " + STREAM_CURSOR);
+                if (rowCount == 0)
+                    handler.begin(rs.getMetaData());
+                fetched = 0;
+                while (rs.next()) {
+                    handler.handleRow(rs);
+                    fetched++;
+                } // end while
+                rs.close();
+                rowCount += fetched;
+            } while (fetched == FETCH_SIZE);
+            fetch.execute("CLOSE " + STREAM_CURSOR);
+            fetch.close();
+            return timer.done(rowCount);
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
+    }// end executeQueryAndStream
+
     /**
      * Method to execute an input query SQL instruction (i.e. SELECT). This
      * method issues the query to the DBMS and returns the number of results
      *
-     * @param query the input query string
+     * @param query  the input query template
+     * @param params the values for the placeholders
      * @return the number of rows returned
      * @throws java.sql.SQLException when failed to execute the query
      */
-    public int executeQuery(String query) throws SQLException {
-        // creates a statement object
-        Statement stmt = this._connection.createStatement();
+    public int executeQuery(String query, Object... params) throws SQLException {
+        QueryMetrics.Query timer = this._metrics.start(query, params);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            // fetches the cached statement for this template and binds the values
+            PreparedStatement stmt = conn.prepare(query, params);
 
-        // issues the query instruction
-        ResultSet rs = stmt.executeQuery(query);
+            // issues the query instruction
+            ResultSet rs = stmt.executeQuery();
 
-        int rowCount = 0;
+            int rowCount = 0;
 
-        // iterates through the result set and count nuber of results.
-        while (rs.next()) {
-            rowCount++;
-        } // end while
-        stmt.close();
-        return rowCount;
+            // iterates through the result set and count nuber of results.
+            while (rs.next()) {
+                rowCount++;
+            } // end while
+            rs.close();
+            return timer.done(rowCount);
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
     }
 
     /**
      * Method to fetch the last value from sequence. This
      * method issues the query to the DBMS and returns the current
-     * value of sequence used for autogenerated keys
+     * value of sequence used for autogenerated keys. currval is tracked per
+     * session, so this only sees inserts made on the same pooled connection.
      *
      * @param sequence name of the DB sequence
      * @return current value of a sequence
      * @throws java.sql.SQLException when failed to execute the query
      */
     public int getCurrSeqVal(String sequence) throws SQLException {
-        Statement stmt = this._connection.createStatement();
+        QueryMetrics.Query timer = this._metrics.start("SELECT currval(?)", sequence);
+        try (ConnectionPool.PooledConnection conn = this._pool.borrow()) {
+            ResultSet rs = conn.prepare("SELECT currval(?)", sequence).executeQuery();
+            int value = -1;
+            if (rs.next())
+                value = rs.getInt(1);
+            rs.close();
+            timer.done(value == -1 ? 0 : 1);
+            return value;
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
+    }
+
+    // changes whenever stores are added, see Session.isStale
+    public long getStoreVersion() {
+        return this._storeVersion;
+    }
+
+    // the engine behind the recent orders and recent updates reports
+    public RecentActivity getRecentActivity() {
+        return this._recent;
+    }
+
+    // the engine behind the nearest in-stock stores search
+    public ProductSearch getProductSearch() {
+        return this._search;
+    }
 
-        ResultSet rs = stmt.executeQuery(String.format("Select currval('%s')", sequence));
-        if (rs.next())
-            return rs.getInt(1);
-        return -1;
+    // the cached product lists, invalidated by the writes below
+    public CatalogCache getCatalogCache() {
+        return this._catalog;
+    }
+
+    // what the query helpers above have run, also registered over JMX
+    public QueryMetrics getMetrics() {
+        return this._metrics;
     }
 
     /**
-     * Method to close the physical connection if it is open.
+     * Method to get the executor that runs queries in the background, with
+     * one worker per pooled connection.
+     *
+     * @return the executor
+     */
+    public synchronized AsyncQueryExecutor getAsync() {
+        if (this._async == null)
+            this._async = new AsyncQueryExecutor(this, this._poolSize);
+        return this._async;
+    }// end getAsync
+
+    /**
+     * Method to set how many entries the recent orders and recent updates
+     * reports show, the recent=N option of main.
+     *
+     * @param limit the number of entries, at least 1
+     */
+    public void setRecentLimit(int limit) {
+        this._recent = new RecentActivity(this, limit);
+    }
+
+    /**
+     * Method to get the spatial index over store coordinates. The index is
+     * loaded from the Store table the first time it is needed.
+     *
+     * @return the store index
+     * @throws java.sql.SQLException when failed to load the stores
+     */
+    public synchronized SpatialIndex getStoreIndex() throws SQLException {
+        if (this._storeIndex == null)
+            reloadStoreIndex();
+        return this._storeIndex;
+    }// end getStoreIndex
+
+    /**
+     * Method to rebuild the store index from the Store table, for stores
+     * added outside of this application.
+     *
+     * @throws java.sql.SQLException when failed to load the stores
+     */
+    public synchronized void reloadStoreIndex() throws SQLException {
+        SpatialIndex index = new SpatialIndex();
+        ResultTable stores = executeQueryAndReturnTable("SELECT storeID, latitude, longitude FROM Store");
+        for (int i = 0; i < stores.rowCount(); i++) {
+            index.add(stores.getInt(i, 0), stores.getDouble(i, 1), stores.getDouble(i, 2));
+        }
+        // stores may have changed hands since the last load; the first load
+        // tells sessions nothing new
+        if (this._storeIndex != null)
+            this._storeVersion++;
+        this._storeIndex = index;
+    }// end reloadStoreIndex
+
+    /**
+     * Method to add a new store. The store is inserted into the Store table
+     * and added to the store index so nearby-store lookups see it right away.
+     *
+     * @param storeID   the ID of the new store
+     * @param latitude  the latitude of the store
+     * @param longitude the longitude of the store
+     * @param managerID the user ID of the store's manager
+     * @throws java.sql.SQLException when the insert failed
+     */
+    public void addStore(int storeID, double latitude, double longitude, int managerID) throws SQLException {
+        executeUpdate("INSERT INTO Store (storeID, latitude, longitude, managerID, dateEstablished) VALUES (?, ?, ?, ?, CURRENT_DATE)",
+                storeID, latitude, longitude, managerID);
+        synchronized (this) {
+            getStoreIndex().add(storeID, latitude, longitude);
+            this._storeVersion++;
+        }
+    }// end addStore
+
+    /**
+     * Method to check a connection out of the pool for work that has to run
+     * several statements on the same connection, such as a transaction. The
+     * caller must close the returned connection to give it back.
+     *
+     * @return a pooled connection
+     * @throws java.sql.SQLException when no connection could be obtained
+     */
+    public ConnectionPool.PooledConnection getConnection() throws SQLException {
+        return this._pool.borrow();
+    }// end getConnection
+
+    /**
+     * Method to close the physical connections if they are open.
      */
     public void cleanup() {
-        try {
-            if (this._connection != null) {
-                this._connection.close();
-            } // end if
-        } catch (SQLException e) {
-            // ignored.
-        } // end try
+        this._metrics.unregister();
+        synchronized (this) {
+            if (this._async != null)
+                this._async.shutdown();
+        }
+        if (this._pool != null) {
+            this._pool.close();
+        } // end if
     }// end cleanup
 
-    public int getOrderNum() {
-        int num = this.orderNum;
-        this.orderNum++;
-        
-        return num;
+    /**
+     * Method to place an order in a single round trip. The place_order
+     * database function checks the distance to the store and the stock,
+     * decrements Product.numberOfUnits and inserts the Orders row in one
+     * transaction, so concurrent orders for the same product cannot oversell.
+     *
+     * @param customerID  the user ID of the customer
+     * @param storeID     the store to order from
+     * @param productName the product to order
+     * @param units       the number of units to order
+     * @return the new order number, or one of the negative ORDER_ result codes
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int submitOrder(int customerID, int storeID, String productName, int units) throws SQLException {
+        ResultTable result = executeQueryAndReturnTable("SELECT place_order(?, ?, ?::bpchar, ?, ?)",
+                customerID, storeID, productName, units, MAX_STORE_DISTANCE);
+        int orderNumber = result.getInt(0, 0);
+        if (orderNumber > 0)
+            this._catalog.invalidate(storeID);
+        return orderNumber;
+    }// end submitOrder
+
+    /**
+     * Method to set the stock and price of a product and record the change in
+     * ProductUpdates, in one transaction.
+     *
+     * @param managerID   the user ID of the manager making the change
+     * @param storeID     the store selling the product
+     * @param productName the product to update
+     * @param units       the new number of units
+     * @param price       the new price per unit
+     * @return false if the store does not sell the product
+     * @throws java.sql.SQLException when failed to execute the update
+     */
+    public boolean submitProductUpdate(int managerID, int storeID, String productName, int units, double price) throws SQLException {
+        return UnitOfWork.run(this, work -> {
+            if (work.update(UPDATE_PRODUCT_SQL, units, price, storeID, productName) == 0)
+                return false;
+            work.batch(LOG_PRODUCT_UPDATE_SQL, managerID, storeID, productName, new Timestamp(System.currentTimeMillis()));
+            work.invalidate(storeID);
+            return true;
+        });
+    }// end submitProductUpdate
+
+    /**
+     * Method to record a supply request to a warehouse and add the requested
+     * units to the store's stock, in one transaction.
+     *
+     * @param managerID   the user ID of the manager placing the request
+     * @param warehouseID the warehouse supplying the units
+     * @param storeID     the store receiving the units
+     * @param productName the product to supply
+     * @param units       the number of units requested
+     * @throws java.sql.SQLException when failed to execute the update
+     */
+    public void submitSupplyRequest(int managerID, int warehouseID, int storeID, String productName, int units) throws SQLException {
+        UnitOfWork.run(this, work -> {
+            work.batch(SUPPLY_REQUEST_SQL, managerID, warehouseID, storeID, productName, units);
+            work.batch(RESTOCK_SQL, units, storeID, productName);
+            work.invalidate(storeID);
+            return null;
+        });
+    }// end submitSupplyRequest
+
+    // the operation timed for a menu choice; other choices are timed as "menu"
+    private static String operationName(String[] names, int choice) {
+        return choice > 0 && choice < names.length ? names[choice] : "menu";
+    }
+
+    // shows a failed operation's error and counts it against the operation
+    static void reportError(Amazon esql, Exception e) {
+        esql.getMetrics().operationFailed(e);
+        System.err.println(e.getMessage());
     }
 
+    /**
+     * Method to turn a submitOrder result code into a message for the user.
+     *
+     * @param code the result of submitOrder
+     * @return a description of the result
+     */
+    public static String describeOrderResult(int code) {
+        switch (code) {
+            case ORDER_UNKNOWN_CUSTOMER:
+                return "Customer not found.";
+            case ORDER_UNKNOWN_STORE:
+                return "Store not found.";
+            case ORDER_STORE_TOO_FAR:
+                return "Store too far from current location.";
+            case ORDER_UNKNOWN_PRODUCT:
+                return "Product not found at this store.";
+            case ORDER_NOT_ENOUGH_STOCK:
+                return "Not enough units available.";
+            case ORDER_INVALID_UNITS:
+                return "Number of units must be positive.";
+            default:
+                return "Order " + code + " placed!";
+        }
+    }// end describeOrderResult
+
     /**
      * The main execution method
      *
@@ -243,12 +639,12 @@ public class Amazon {
      *             file>
      */
     public static void main(String[] args) {
-        if (args.length != 3) {
+        if (args.length < 3 || args.length > 4 || (args.length == 4 && !args[3].startsWith("recent="))) {
             System.err.println(
                     "Usage: " +
                             "java [-classpath <classpath>] " +
                             Amazon.class.getName() +
-                            " <dbname> <port> <user>");
+                            " <dbname> <port> <user> [recent=N]");
             return;
         } // end if
 
@@ -263,6 +659,9 @@ public class Amazon {
             String dbport = args[1];
             String user = args[2];
             esql = new Amazon(dbname, dbport, user, "");
+            // how many entries the recent orders and updates show
+            if (args.length == 4)
+                esql.setRecentLimit(Integer.parseInt(args[3].substring("recent=".length())));
 
             boolean keepon = true;
             while (keepon) {
@@ -272,13 +671,15 @@ public class Amazon {
                 System.out.println("1. Create user");
                 System.out.println("2. Log in");
                 System.out.println("9. < EXIT");
-                List<String> userInfo = null;
-                switch (readChoice()) {
+                Session session = null;
+                int choice = readChoice();
+                QueryMetrics.Operation operation = esql.getMetrics().begin(operationName(START_OPERATIONS, choice));
+                switch (choice) {
                     case 1:
                         CreateUser(esql);
                         break;
                     case 2:
-                        userInfo = LogIn(esql);
+                        session = LogIn(esql);
                         break;
                     case 9:
                         keepon = false;
@@ -287,56 +688,71 @@ public class Amazon {
                         System.out.println("Unrecognized choice!");
                         break;
                 }// end switch
-                if (userInfo.size() != 0) {
+                operation.close();
+                if (session != null) {
                     boolean usermenu = true;
                     while (usermenu) {
+                        // stores were added since log in, re-read the managed stores
+                        if (session.isStale(esql))
+                            session = session.refresh(esql);
+
                         System.out.println("MAIN MENU");
                         System.out.println("---------");
                         System.out.println("1. View Stores within 30 miles");
                         System.out.println("2. View Product List");
                         System.out.println("3. Place a Order");
-                        System.out.println("4. View 5 recent orders");
+                        System.out.println("4. View " + esql.getRecentActivity().getLimit() + " recent orders");
 
                         // the following functionalities basically used by managers
                         System.out.println("5. Update Product");
-                        System.out.println("6. View 5 recent Product Updates Info");
+                        System.out.println("6. View " + esql.getRecentActivity().getLimit() + " recent Product Updates Info");
                         System.out.println("7. View 5 Popular Items");
                         System.out.println("8. View 5 Popular Customers");
                         System.out.println("9. Place Product Supply Request to Warehouse");
                         System.out.println("10. View All Orders");
+                        System.out.println("11. Restock low products in your stores");
+                        System.out.println("12. Find the nearest stores with a product in stock");
 
                         System.out.println(".........................");
                         System.out.println("20. Log out");
-                        switch (readChoice()) {
+                        choice = readChoice();
+                        operation = esql.getMetrics().begin(operationName(USER_OPERATIONS, choice));
+                        switch (choice) {
                             case 1:
-                                viewStores(esql, userInfo.get(0));
+                                viewStores(esql, session);
                                 break;
                             case 2:
                                 viewProducts(esql);
                                 break;
                             case 3:
-                                placeOrder(esql, userInfo.get(0));
+                                placeOrder(esql, session);
                                 break;
                             case 4:
-                                viewRecentOrders(esql, userInfo.get(0));
+                                viewRecentOrders(esql, session);
                                 break;
                             case 5:
-                                updateProduct(esql, userInfo.get(0), userInfo.get(1));
+                                updateProduct(esql, session);
                                 break;
                             case 6:
-                                viewRecentUpdates(esql, userInfo.get(0), userInfo.get(1));
+                                viewRecentUpdates(esql, session);
                                 break;
                             case 7:
-                                viewPopularProducts(esql, userInfo.get(0), userInfo.get(1));
+                                viewPopularProducts(esql, session);
                                 break;
                             case 8:
-                                viewPopularCustomers(esql, userInfo.get(0), userInfo.get(1));
+                                viewPopularCustomers(esql, session);
                                 break;
                             case 9:
-                                placeProductSupplyRequests(esql, userInfo.get(0), userInfo.get(1));
+                                placeProductSupplyRequests(esql, session);
                                 break;
                             case 10:
-                                viewAllOrders(esql, userInfo.get(0), userInfo.get(1));
+                                viewAllOrders(esql, session);
+                                break;
+                            case 11:
+                                restockLowProducts(esql, session);
+                                break;
+                            case 12:
+                                findProduct(esql, session);
                                 break;
                             case 20:
                                 usermenu = false;
@@ -345,6 +761,7 @@ public class Amazon {
                                 System.out.println("Unrecognized choice!");
                                 break;
                         }
+                        operation.close();
                     }
                 }
             } // end while
@@ -408,77 +825,56 @@ public class Amazon {
 
             String type = "Customer";
 
-            String query = String.format(
-                    "INSERT INTO USERS (name, password, latitude, longitude, type) VALUES ('%s','%s', %s, %s,'%s')",
-                    name, password, latitude, longitude, type);
+            String query = "INSERT INTO USERS (name, password, latitude, longitude, type) VALUES (?, ?, ?, ?, ?)";
 
-            esql.executeUpdate(query);
+            esql.executeUpdate(query, name, password, Double.parseDouble(latitude), Double.parseDouble(longitude), type);
             System.out.println("User successfully created!");
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }// end CreateUser
 
     /*
      * Check log in credentials for an existing user
      * 
-     * @return User ID and Type or null is the user does not exist
+     * @return the user's session or null if the user does not exist
      **/
-    public static List<String> LogIn(Amazon esql) {
+    public static Session LogIn(Amazon esql) {
         try {
             System.out.print("\tEnter name: ");
             String name = in.readLine();
             System.out.print("\tEnter password: ");
             String password = in.readLine();
 
-            String query = String.format("SELECT userID, type FROM USERS WHERE name = '%s' AND password = '%s'", name, password);
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-            
-            List<String> info = new ArrayList<>();
-            info.add(result.get(0).get(0));
-            info.add(result.get(0).get(1));
+            Session session = Session.login(esql, name, password);
 
-            if (info.size() > 0)
-                return info;
+            if (session == null)
+                System.out.println("Invalid name or password.");
 
-            return null;
+            return session;
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
             return null;
         }
     }// end
 
     // Rest of the functions definition go in here
 
-    public static void viewStores(Amazon esql, String userID) {
+    public static void viewStores(Amazon esql, Session session) {
         try {
-            String query = String.format("SELECT latitude, longitude FROM Users WHERE userID = '%s'", userID);
-            
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-            double userLat = Double.parseDouble(results.get(0).get(0));
-            double userLong = Double.parseDouble(results.get(0).get(1));
-
-            String query2 = "SELECT storeID, latitude, longitude FROM Store";
-            List<List<String>> results2 = esql.executeQueryAndReturnResult(query2);
+            SpatialIndex.Result nearby = esql.getStoreIndex().within(session.getLatitude(), session.getLongitude(),
+                    MAX_STORE_DISTANCE);
 
             System.out.println("List of stores within 30 miles of you");
             System.out.println("---------");
-            for (List<String> record : results2) {
-                String storeID = record.get(0);
-                double storeLat = Double.parseDouble(record.get(1));
-                double storeLong = Double.parseDouble(record.get(2));
-                double distance = esql.calculateDistance(storeLat, storeLong, userLat, userLong);
-                if (distance < 30) {
-                    System.out.println("Store ID: " + storeID);
-                    System.out.println("Distance: " + distance + " miles");
-                    System.out.println("---------");
-                    
-                }
+            for (int i = 0; i < nearby.size; i++) {
+                System.out.println("Store ID: " + nearby.ids[i]);
+                System.out.println("Distance: " + nearby.distances[i] + " miles");
+                System.out.println("---------");
             }
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
@@ -495,68 +891,51 @@ public class Amazon {
         }
 
         try {
-            String query = String.format("SELECT productName, numberOfUnits, pricePerUnit FROM Product WHERE storeID = '%s'", id);
+            ResultTable products = esql.getCatalogCache().products(id);
 
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
-            
             System.out.println("List of items in Store " + id);
             System.out.println("---------");
-            for (List<String> record : results) {
-                String name = record.get(0);
-                int num = Integer.parseInt(record.get(1));
-                double price = Float.parseFloat(record.get(2));
-                System.out.println("Item: " + name);
-                System.out.println("Units available: " + num);
-                System.out.println("Price: " + price);
-                System.out.println("---------");
-                    
-            }
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT, "Item", "Units available", "Price");
+            report.write(products);
+            report.flush();
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void placeOrder(Amazon esql, String userID) {
+    public static void placeOrder(Amazon esql, Session session) {
         try {
-            String query = String.format("SELECT latitude, longitude FROM Users WHERE userID = '%s'", userID);
-                
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
-
-            double userLat = Double.parseDouble(results.get(0).get(0));
-            double userLong = Double.parseDouble(results.get(0).get(1));
-
             System.out.print("Enter Store ID: ");
             int storeID = Integer.parseInt(in.readLine());
 
-            String query2 = String.format("SELECT latitude, longitude FROM Store WHERE storeID = '%s'", storeID);
-            List<List<String>> results2 = esql.executeQueryAndReturnResult(query2);
+            double distance = esql.getStoreIndex().distanceTo(storeID, session.getLatitude(), session.getLongitude());
 
-            if (results2.size() == 0) {
+            if (Double.isNaN(distance)) {
                 System.out.println("Store " + storeID + " not found.");
                 return;
             }
-
-            double storeLat = Double.parseDouble(results2.get(0).get(0));
-            double storeLong = Double.parseDouble(results2.get(0).get(1));
-            double distance = esql.calculateDistance(storeLat, storeLong, userLat, userLong);
             
-            if (distance > 30) {
+            if (distance > MAX_STORE_DISTANCE) {
                 System.out.println("Store " + storeID + " too far from current location.");
                 return;
             }
+
+            // read the store's products while the product name is typed
+            CompletableFuture<ResultTable> catalog = esql.getAsync().submit(
+                    () -> esql.getCatalogCache().products(storeID));
             
             System.out.print("\nEnter product name: ");
             String productName = in.readLine();
 
-            String query3 = String.format("SELECT numberOfUnits FROM Product WHERE storeID = '%s' AND productName = '%s'", storeID, productName);
-            List<List<String>> results3 = esql.executeQueryAndReturnResult(query3);
+            ResultTable products = AsyncQueryExecutor.await(catalog);
+            int row = CatalogCache.find(products, productName);
 
-            if (results3.size() == 0) {
+            if (row < 0) {
                 System.out.println("Product " + productName + " not found at Store " + storeID + '.');
                 return;
             }
 
-            int available = Integer.parseInt(results3.get(0).get(0));
+            int available = products.getInt(row, 1);
 
             if (available == 0) {
                 System.out.println("Product " + productName + " out of stock at Store " + storeID + '.');
@@ -572,122 +951,207 @@ public class Amazon {
                 return;
             }
 
-            Timestamp time = new Timestamp(new java.util.Date().getTime());
+            // the stock shown above may have changed since, so the order is
+            // validated again when it is placed
+            int result = esql.submitOrder(session.getUserID(), storeID, productName, amount);
+            System.out.println(describeOrderResult(result));
+        } catch (Exception e) {
+            reportError(esql, e);
+        }
+    }
+
+    public static void findProduct(Amazon esql, Session session) {
+        try {
+            System.out.print("Enter product name: ");
+            String productName = in.readLine().trim();
+
+            ResultTable stores = esql.getProductSearch().nearestInStock(productName, session.getLatitude(),
+                    session.getLongitude());
+            if (stores.rowCount() == 0) {
+                System.out.println("No store has " + productName + " in stock.\n");
+                return;
+            }
+
+            System.out.println("\nNearest stores with " + productName + " in stock");
+            System.out.println("---------");
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT,
+                    "Store ID", "Units available", "Price", "Distance");
+            report.write(stores);
+            report.flush();
 
-            String query4 = String.format(
-                "INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime) VALUES ('%s', '%s', '%s', '%s', '%s', '%s')",
-                esql.getOrderNum(), userID, storeID, productName, amount, time);
+            if (stores.getDouble(stores.rowCount() - 1, 3) > MAX_STORE_DISTANCE)
+                System.out.println("Stores farther than " + (int) MAX_STORE_DISTANCE + " miles cannot take your order.");
+            System.out.println();
 
-            esql.executeUpdate(query4);
-            System.out.println("Order placed!");
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void viewRecentOrders(Amazon esql, String userID) {
+    public static void viewRecentOrders(Amazon esql, Session session) {
         try {
-            String query = String.format("SELECT storeID, productName, unitsOrdered, orderTime FROM Orders WHERE customerID = '%s' ORDER BY orderTime DESC LIMIT 5", userID);
-            
-            List<List<String>> results = esql.executeQueryAndReturnResult(query);
+            ResultTable orders = esql.getRecentActivity().recentOrders(session.getUserID());
             
             System.out.println("\nRecent Orders");
             System.out.println("---------");
-            for (List<String> record : results) {
-                int storeID = Integer.parseInt(record.get(0));
-                String productName = record.get(1);
-                int unitsOrdered = Integer.parseInt(record.get(2));
-                String date = record.get(3);
-
-                System.out.println("Store ID: " + storeID);
-                System.out.println("Product name: " + productName);
-                System.out.println("Units ordered: " + unitsOrdered);
-                System.out.println("Date ordered: " + date);
-
-                System.out.println("---------");    
-            }
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT,
+                    "Store ID", "Product name", "Units ordered", "Date ordered");
+            report.write(orders);
+            report.flush();
 
             System.out.println();
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void viewAllOrders(Amazon esql, String userID, String type) {
-        if (!type.trim().equals("manager")) {
+    public static void viewAllOrders(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
-            String query = String.format("SELECT o.orderNumber, u.name, o.storeID, o.productName, o.orderTime FROM Orders o JOIN Users u on o.customerID = u.userID JOIN Store s on o.storeID = s.storeID WHERE managerID = '%s'", userID);
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-            if (result.size() == 0) {
-                System.out.println("You do not manage any stores.");
+            System.out.print("Enter store ID to browse (blank for all your stores): ");
+            String store = in.readLine().trim();
+            Integer storeID = store.isEmpty() ? null : Integer.parseInt(store);
+            if (storeID != null && !session.manages(storeID)) {
+                System.out.println("You do not manage Store " + storeID + '.');
+                return;
+            }
+            System.out.print("Show orders from (yyyy-mm-dd [hh:mm:ss], blank for no limit): ");
+            Timestamp from = readTimestamp(in.readLine());
+            System.out.print("Show orders before (yyyy-mm-dd [hh:mm:ss], blank for no limit): ");
+            Timestamp to = readTimestamp(in.readLine());
+            System.out.print("Orders per page (blank for " + OrderBrowser.DEFAULT_PAGE_SIZE + "): ");
+            String size = in.readLine().trim();
+            int pageSize = size.isEmpty() ? OrderBrowser.DEFAULT_PAGE_SIZE : Integer.parseInt(size);
+
+            OrderBrowser browser = new OrderBrowser(esql, session.getUserID(), storeID, from, to, pageSize);
+            ResultTable page = browser.first();
+
+            if (page.rowCount() == 0) {
+                System.out.println("No orders found for the stores you manage.");
                 return;
             }
 
-            System.out.println("Here are the orders from all the stores you manage: ");
-            System.out.println("---------");  
-            for (List<String> record : result) {
-                String orderID = record.get(0);
-                String name = record.get(1);
-                String storeID = record.get(2);
-                String productName = record.get(3);
-                String date = record.get(4);
-
-                System.out.println("Order ID: " + orderID);
-                System.out.println("Name: " + name);
-                System.out.println("Store ID: " + storeID);
-                System.out.println("Product name: " + productName);
-                System.out.println("Date ordered: " + date);
-
-                System.out.println("---------");    
+            System.out.println("Here are the orders from the stores you manage: ");
+            boolean browsing = true;
+            while (browsing) {
+                System.out.println("---------");  
+                ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT, ORDER_LABELS);
+                report.write(page);
+                report.flush();
+
+                System.out.print((browser.hasNext() ? "n. Next page  " : "")
+                        + (browser.hasPrevious() ? "p. Previous page  " : "") + "e. Export all  q. Back to menu: ");
+                String choice = in.readLine().trim();
+                if (choice.equals("n") && browser.hasNext())
+                    page = browser.next();
+                else if (choice.equals("p") && browser.hasPrevious())
+                    page = browser.previous();
+                else if (choice.equals("e"))
+                    exportOrders(browser);
+                else if (choice.equals("q"))
+                    browsing = false;
+                else
+                    System.out.println("Unrecognized choice!");
             }
 
             System.out.println();  
             
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
 
     }
 
-    public static void updateProduct(Amazon esql, String userID,  String type) {
-        if (!type.trim().equals("manager")) {
+    /*
+     * Writes every order the browser shows, in the format and to the file
+     * the manager picks
+     **/
+    static void exportOrders(OrderBrowser browser) throws IOException, SQLException {
+        System.out.print("Export format (text, csv or jsonl, blank for csv): ");
+        String name = in.readLine().trim();
+        int format = name.isEmpty() ? ReportWriter.CSV : ReportWriter.parseFormat(name);
+        System.out.print("Export to file (blank for the screen): ");
+        String path = in.readLine().trim();
+
+        String[] labels = format == ReportWriter.TEXT ? ORDER_LABELS : new String[0];
+        long start = System.currentTimeMillis();
+        int rows;
+        try (ReportWriter report = path.isEmpty() ? ReportWriter.toStdout(format, labels)
+                : ReportWriter.toFile(path, format, labels)) {
+            rows = browser.export(report);
+        }
+        if (!path.isEmpty())
+            System.out.println("Exported " + rows + " orders to " + path + " in "
+                    + (System.currentTimeMillis() - start) + " ms.");
+    }// end exportOrders
+
+    /*
+     * Parses an optional date or timestamp typed by the user
+     *
+     * @return the timestamp, or null if the input is blank
+     **/
+    static Timestamp readTimestamp(String input) {
+        input = input.trim();
+        if (input.isEmpty())
+            return null;
+        if (input.length() == 10)
+            input += " 00:00:00";
+        return Timestamp.valueOf(input);
+    }// end readTimestamp
+
+    /*
+     * Lists the stores a manager runs and reads the one to work on
+     *
+     * @return the store ID, or -1 if the manager has no stores or picked
+     * a store they do not manage
+     **/
+    static int readManagedStore(Session session, String action) throws IOException {
+        int[] stores = session.getManagedStores();
+        if (stores.length == 0) {
+            System.out.println("You do not manage any stores.");
+            return -1;
+        }
+
+        System.out.println("Here are the stores you manage: ");
+        System.out.println("---------");
+        for (int store : stores) {
+            System.out.println("Store ID: " + store);
+        }
+
+        System.out.println("---------\n");
+
+        System.out.print("Enter store ID to " + action + ": ");
+        int storeID = Integer.parseInt(in.readLine());
+
+        if (!session.manages(storeID)) {
+            System.out.println("You do not manage Store " + storeID + '.');
+            return -1;
+        }
+        return storeID;
+    }// end readManagedStore
+
+    public static void updateProduct(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
-            String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-            if (result.size() == 0) {
-                System.out.println("You do not manage any stores.");
+            int storeID = readManagedStore(session, "update products");
+            if (storeID < 0)
                 return;
-            }
 
-            System.out.println("Here are the stores you manage: ");
-            System.out.println("---------");  
-            for (List<String> record : result) {
-                System.out.println("Store ID: " + record.get(0));
-            }
-
-            System.out.println("---------\n");  
-            
-            System.out.print("Enter store ID to update products: ");
-            String storeID = in.readLine();
-
-            String listProductsQuery = String.format("SELECT productname FROM Product WHERE storeID = '%s'", storeID);
-            List<List<String>> products = esql.executeQueryAndReturnResult(listProductsQuery);
+            ResultTable products = esql.getCatalogCache().products(storeID);
 
             System.out.println("Products availabe at Store " + storeID + ":");
             System.out.println("---------");
-            for (List<String> product : products) {
-                System.out.println(product.get(0));
+            for (int i = 0; i < products.rowCount(); i++) {
+                System.out.println(products.getString(i, 0));
                 System.out.println("---------");
             }
 
@@ -695,222 +1159,180 @@ public class Amazon {
             String updateName = in.readLine();
 
             System.out.print("Enter updated number of units: ");
-            String updateNum = in.readLine();
+            int updateNum = Integer.parseInt(in.readLine());
 
             System.out.print("Enter updated price of units: ");
-            String updatePrice = in.readLine();
+            double updatePrice = Double.parseDouble(in.readLine());
 
-            String updateQuery = String.format("UPDATE Product SET numberOfUnits = '%s', pricePerUnit = '%s' WHERE storeID = '%s' AND productName = '%s'", updateNum, updatePrice, storeID, updateName);
-            esql.executeUpdate(updateQuery);
-
-            Timestamp updateTime = new Timestamp(new java.util.Date().getTime());
-            String productUpdateQuery = String.format("INSERT INTO ProductUpdates (managerID, storeID, productName, updatedOn) VALUES ('%s', '%s', '%s', '%s')", userID, storeID, updateName, updateTime);
-            esql.executeUpdate(productUpdateQuery);
+            if (!esql.submitProductUpdate(session.getUserID(), storeID, updateName, updateNum, updatePrice)) {
+                System.out.println("Product " + updateName + " not found at Store " + storeID + '.');
+                return;
+            }
             
             System.out.println("---------");   
             System.out.println("Sucessfully updated " + updateName + " in Store " + storeID);   
             System.out.println("---------");   
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void viewRecentUpdates(Amazon esql, String userID,  String type) {
-        if (!type.trim().equals("manager")) {
+    public static void viewRecentUpdates(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
-            String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-            List<List<String>> stores = esql.executeQueryAndReturnResult(query);
-
-            List<List<String>> recentUpdates = new ArrayList<>();
-
-            for (List<String> store: stores) {
-                int storeID = Integer.parseInt(store.get(0));
-
-                String getUpdatesQuery = String.format("SELECT productName, updatedOn FROM ProductUpdates WHERE storeID = '%s' ORDER BY updatedOn", storeID);
-                List<List<String>> updates = esql.executeQueryAndReturnResult(getUpdatesQuery);
-
-                for(List<String> update : updates) {
-                    update.add(0, String.valueOf(storeID));
-                }
-
-                recentUpdates.addAll(updates);
-            }
+            // newest updates across all of the manager's stores, already
+            // limited and ordered by the database
+            ResultTable recentUpdates = esql.getRecentActivity().recentUpdates(session.getUserID());
 
-            recentUpdates.sort((updateOne, updateTwo) -> {
-                Timestamp oneTime = Timestamp.valueOf(updateOne.get(2));
-                Timestamp twoTime = Timestamp.valueOf(updateTwo.get(2));
-                return twoTime.compareTo(oneTime);
-            });
-
-            int count = 0;
             System.out.println("\nRecent Updates: ");
             System.out.println("---------");  
-            for (List<String> update : recentUpdates) {
-                String storeID = update.get(0);
-                String product = update.get(1);
-                String time = update.get(2);
-
-                System.out.println("Store ID: " + storeID);
-                System.out.println("Product name: " + product);
-                System.out.println("Updated On: " + time);
-                System.out.println("---------");
-
-                count++;
-                if (count >= 5) {
-                    break;
-                }
-            }
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT, "Store ID", "Product name", "Updated On");
+            report.write(recentUpdates);
+            report.flush();
 
             System.out.println();
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void viewPopularProducts(Amazon esql, String userID,  String type) {
-        if (!type.trim().equals("manager")) {
+    public static void viewPopularProducts(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
-            String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-            if (result.size() == 0) {
-                System.out.println("You do not manage any stores.");
+            int storeID = readManagedStore(session, "view popular products");
+            if (storeID < 0)
                 return;
-            }
-
-            System.out.println("Here are the stores you manage: ");
-            System.out.println("---------");  
-            for (List<String> record : result) {
-                System.out.println("Store ID: " + record.get(0));
-            }
-
-            System.out.println("---------\n");  
-            
-            System.out.print("Enter store ID to view popular products: ");
-            String storeID = in.readLine();
-
-            String query2 = String.format("SELECT productName, SUM(unitsOrdered) AS totalOrdered FROM Orders WHERE storeID = '%s' GROUP BY productName ORDER BY totalOrdered DESC LIMIT 5", storeID);
-            List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
 
             System.out.println("\nMost popular products at Store " + storeID);
             System.out.println("---------");
-            for (List<String> record : result2) {
-                String productName = record.get(0);
-                String totalOrdered = record.get(1);
-
-                System.out.println("Product name: " + productName);
-                System.out.println("Total ordered: " + totalOrdered);
-
-                System.out.println("---------");   
-            }
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT, "Product name", "Total ordered");
+            // StoreProductSales is kept up to date as orders are placed
+            esql.executeQueryAndStream(POPULAR_PRODUCTS_SQL, report, storeID);
+            report.flush();
 
             System.out.println();
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
     }
 
-    public static void viewPopularCustomers(Amazon esql, String userID, String type) {
-        if (!type.trim().equals("manager")) {
+    public static void viewPopularCustomers(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
-            String query = String.format("SELECT storeID from Store WHERE managerID = '%s'", userID);
-            List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
-            if (result.size() == 0) {
-                System.out.println("You do not manage any stores.");
+            int storeID = readManagedStore(session, "view popular customers");
+            if (storeID < 0)
                 return;
-            }
-
-            System.out.println("Here are the stores you manage: ");
-            System.out.println("---------");  
-            for (List<String> record : result) {
-                System.out.println("Store ID: " + record.get(0));
-            }
-
-            System.out.println("---------\n");  
-            
-            System.out.print("Enter store ID to view popular customers: ");
-            String storeID = in.readLine();
-
-            String query2 = String.format("SELECT u.userID, u.name, COUNT(o.orderNumber) AS orderCount FROM Users u JOIN Orders o ON u.userID = o.customerID WHERE o.storeID = '%s' GROUP BY u.userID, u.name ORDER BY orderCount DESC LIMIT 5", storeID);
-            List<List<String>> result2 = esql.executeQueryAndReturnResult(query2);
 
             System.out.println("\nMost popular customers at Store " + storeID);
             System.out.println("---------");
-            for (List<String> record : result2) {
-                String customerID = record.get(0);
-                String name = record.get(1);
-                String orderCount = record.get(2);
-
-                System.out.println("Customer ID: " + customerID);
-                System.out.println("Name: " + name);
-                System.out.println("Order count: " + orderCount);
-
-                System.out.println("---------");    
-            }
+            ReportWriter report = ReportWriter.toStdout(ReportWriter.TEXT, "Customer ID", "Name", "Order count");
+            // StoreCustomerOrders is kept up to date as orders are placed
+            esql.executeQueryAndStream(POPULAR_CUSTOMERS_SQL, report, storeID);
+            report.flush();
 
             System.out.println();
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
         }
 
     }
 
-    public static void placeProductSupplyRequests(Amazon esql, String userID, String type) {
-        if (!type.trim().equals("manager")) {
+    public static void placeProductSupplyRequests(Amazon esql, Session session) {
+        if (!session.isManager()) {
             System.out.println("Invalid permissions.\n");
             return;
         }
 
         try {
             System.out.println("\nPlace Product Supply Request: ");
-            System.out.print("Enter store ID: ");
-            int storeID = Integer.parseInt(in.readLine());
+            int storeID = readManagedStore(session, "request supplies for");
+            if (storeID < 0)
+                return;
 
-            String listProductsQuery = String.format("SELECT productname FROM Product WHERE storeID = '%s'", storeID);
-            List<List<String>> products = esql.executeQueryAndReturnResult(listProductsQuery);
+            ResultTable products = esql.getCatalogCache().products(storeID);
 
             System.out.println("Products availabe at Store " + storeID + ":");
             System.out.println("---------");
-            for (List<String> product : products) {
-                System.out.println(product.get(0));
+            for (int i = 0; i < products.rowCount(); i++) {
+                System.out.println(products.getString(i, 0));
                 System.out.println("---------");
             }
 
             System.out.print("Enter desired Product to supply: ");
             String product = in.readLine();
             System.out.print("Enter Number of Units needed: ");
-            String numUnits = in.readLine();
-            System.out.print("Enter Warehouse ID: ");
-            String warehouseID = in.readLine();
-
-            String  supplyQuery = String.format("INSERT INTO ProductSupplyRequests (managerID, warehouseID, storeID, productName, unitsRequested) VALUES ('%s', '%s', '%s', '%s', '%s')", userID, warehouseID, storeID, product, numUnits);
-            esql.executeUpdate(supplyQuery);
+            int numUnits = Integer.parseInt(in.readLine());
+            System.out.print("Enter Warehouse ID (blank for the nearest): ");
+            String warehouse = in.readLine().trim();
+            int warehouseID = warehouse.isEmpty() ? ReplenishmentPlanner.nearestWarehouse(esql, storeID)
+                    : Integer.parseInt(warehouse);
+            if (warehouseID < 0) {
+                System.out.println("There are no warehouses to supply Store " + storeID + '.');
+                return;
+            }
 
-            String updateProductQuery = String.format("UPDATE Product SET numberOfUnits = numberOfUnits + %s WHERE storeID = %s AND productName = '%s'", numUnits, storeID, product);
-            esql.executeUpdate(updateProductQuery);
+            esql.submitSupplyRequest(session.getUserID(), warehouseID, storeID, product, numUnits);
 
-            System.out.println("Product Supply Request for " + product + " has been placed sucessfully.");
+            System.out.println("Product Supply Request for " + product + " to Warehouse " + warehouseID
+                    + " has been placed sucessfully.");
             System.out.println();
 
         } catch (Exception e) {
-            System.err.println(e.getMessage());
+            reportError(esql, e);
+        }
+    }
+
+    public static void restockLowProducts(Amazon esql, Session session) {
+        if (!session.isManager()) {
+            System.out.println("Invalid permissions.\n");
+            return;
+        }
+
+        try {
+            System.out.print("Restock products with fewer units than (blank for "
+                    + ReplenishmentPlanner.DEFAULT_THRESHOLD + "): ");
+            String threshold = in.readLine().trim();
+            System.out.print("Restock them up to (blank for " + ReplenishmentPlanner.DEFAULT_TARGET + "): ");
+            String target = in.readLine().trim();
+            ReplenishmentPlanner planner = new ReplenishmentPlanner(esql,
+                    threshold.isEmpty() ? ReplenishmentPlanner.DEFAULT_THRESHOLD : Integer.parseInt(threshold),
+                    target.isEmpty() ? ReplenishmentPlanner.DEFAULT_TARGET : Integer.parseInt(target));
+
+            ReplenishmentPlanner.Plan plan = planner.plan(session.getUserID());
+            if (plan.requests.isEmpty()) {
+                System.out.println("No products in your stores need restocking.\n");
+                return;
+            }
+            for (ReplenishmentPlanner.Request r : plan.requests) {
+                System.out.println(String.format("Store %d: %s, %d units, request %d from Warehouse %d (%.1f miles)",
+                        r.storeID, r.productName, r.stock, r.units, r.warehouseID, r.distance));
+            }
+            System.out.print("Place these " + plan.requests.size() + " supply requests? (y/n): ");
+            if (!in.readLine().trim().equalsIgnoreCase("y"))
+                return;
+
+            // re-planned under lock, so stock sold since the preview is still topped up to the target
+            plan = planner.run(session.getUserID());
+            System.out.println("Placed " + plan.requests.size() + " supply requests for " + plan.units + " units.");
+            System.out.println();
+        } catch (Exception e) {
+            reportError(esql, e);
         }
     }
 
@@ -0,0 +1,474 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * This class serves the operations of the menu as HTTP/JSON endpoints on the
+ * JDK's built-in HTTP server, so one process can serve many users at once.
+ * Each request runs on its own virtual thread when the JDK has them (21 and
+ * later) and on a thread of a cached pool otherwise; database work is bounded
+ * by the application's connection pool, so requests beyond the pool size
+ * wait for a connection rather than opening more.
+ *
+ * Clients log in with POST /login and send the returned token as
+ * "Authorization: Bearer <token>" on every other request. A token expires
+ * after LOGIN_IDLE_TIMEOUT_MILLIS without requests and LOGIN_MAX_AGE_MILLIS
+ * after the log in at the latest; the client then has to log in again.
+ *
+ *   POST /login                         {"name", "password"}
+ *   POST /logout
+ *   GET  /stores                        stores within range of the user
+ *   GET  /products?store=ID
+ *   GET  /products/nearby?name=NAME     nearest stores with the product in stock
+ *   POST /orders                        {"storeID", "productName", "units"}
+ *   GET  /orders/recent
+ *   GET  /manager/updates/recent
+ *   GET  /manager/popular-products?store=ID
+ *   GET  /manager/popular-customers?store=ID
+ *   POST /manager/products              {"storeID", "productName", "units", "price"}
+ *   POST /manager/supply-requests       {"storeID", "productName", "units", "warehouseID"}
+ *
+ * Errors are returned as {"error": message} with a 4xx or 5xx status.
+ *
+ * While it runs the server also creates the monthly partitions of Orders
+ * and ProductUpdates, once at start and then daily, so new orders always
+ * have a partition to go to, and drops expired logins every minute.
+ *
+ */
+public class AmazonServer {
+
+    public static final int DEFAULT_PORT = 8080;
+    public static final long LOGIN_IDLE_TIMEOUT_MILLIS = 30 * 60 * 1000L;
+    public static final long LOGIN_MAX_AGE_MILLIS = 12 * 60 * 60 * 1000L;
+
+    // how often logins that expired without a request are dropped
+    private static final long LOGIN_SWEEP_MILLIS = 60 * 1000L;
+
+    // request bodies larger than this are rejected
+    private static final int MAX_BODY_BYTES = 64 * 1024;
+
+    private final Amazon esql;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService maintenance;
+
+    // logins of users by token
+    private final ConcurrentHashMap<String, Login> logins = new ConcurrentHashMap<String, Login>();
+    private final SecureRandom random = new SecureRandom();
+
+    // the session behind a token and when the token expires
+    private static class Login {
+        final long createdAt;
+        volatile long lastUsed;
+        volatile Session session;
+
+        Login(Session session, long now) {
+            this.session = session;
+            this.createdAt = now;
+            this.lastUsed = now;
+        }
+
+        boolean isExpired(long now) {
+            return now - this.lastUsed > LOGIN_IDLE_TIMEOUT_MILLIS || now - this.createdAt > LOGIN_MAX_AGE_MILLIS;
+        }
+    }// end Login
+
+    // a failed request and the status to answer it with
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }// end HttpError
+
+    // one endpoint; returns the JSON response body
+    private interface Endpoint {
+        String handle(HttpExchange exchange, Session login) throws Exception;
+    }
+
+    /**
+     * Creates a server for the application on the given port. Call start to
+     * begin serving.
+     *
+     * @param esql the application whose connection pool is used
+     * @param port the HTTP port to listen on
+     * @throws java.io.IOException when the port cannot be bound
+     */
+    public AmazonServer(Amazon esql, int port) throws IOException {
+        this.esql = esql;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newRequestExecutor();
+        this.server.setExecutor(this.executor);
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "server-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        route("/login", "POST", false, false, this::login);
+        route("/logout", "POST", true, false, this::logout);
+        route("/stores", "GET", true, false, this::stores);
+        route("/products", "GET", true, false, this::products);
+        route("/products/nearby", "GET", true, false, this::nearbyProduct);
+        route("/orders", "POST", true, false, this::placeOrder);
+        route("/orders/recent", "GET", true, false, this::recentOrders);
+        route("/manager/updates/recent", "GET", true, true, this::recentUpdates);
+        route("/manager/popular-products", "GET", true, true, this::popularProducts);
+        route("/manager/popular-customers", "GET", true, true, this::popularCustomers);
+        route("/manager/products", "POST", true, true, this::updateProduct);
+        route("/manager/supply-requests", "POST", true, true, this::supplyRequest);
+    }// end AmazonServer
+
+    /**
+     * Returns an executor that runs each task on a new virtual thread, or a
+     * cached thread pool on JDKs without virtual threads.
+     */
+    static ExecutorService newRequestExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }// end newRequestExecutor
+
+    public void start() {
+        this.server.start();
+        this.maintenance.scheduleAtFixedRate(this::maintainPartitions, 0, 1, TimeUnit.DAYS);
+        this.maintenance.scheduleAtFixedRate(this::dropExpiredLogins, LOGIN_SWEEP_MILLIS, LOGIN_SWEEP_MILLIS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops accepting requests and waits for the running ones to finish.
+     *
+     * @param delaySeconds the longest time to wait for running requests
+     */
+    public void stop(int delaySeconds) {
+        this.server.stop(delaySeconds);
+        this.executor.shutdown();
+        this.maintenance.shutdownNow();
+    }
+
+    // a failed run is retried the next day; the default partitions hold the rows meanwhile
+    private void maintainPartitions() {
+        try {
+            int created = new PartitionMaintenance(this.esql).ensure(PartitionMaintenance.DEFAULT_MONTHS_AHEAD);
+            if (created > 0)
+                System.out.println("Created " + created + " partitions");
+        } catch (SQLException e) {
+            System.err.println("Partition maintenance failed: " + e.getMessage());
+        }
+    }// end maintainPartitions
+
+    // tokens are also checked on use, this only frees the ones never used again
+    private void dropExpiredLogins() {
+        long now = System.currentTimeMillis();
+        this.logins.values().removeIf(login -> login.isExpired(now));
+    }
+
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    // registers an endpoint with its method, login and role checks
+    private void route(final String path, final String method, final boolean needsLogin, final boolean needsManager,
+            final Endpoint endpoint) {
+        final String operationName = method + " " + path;
+        this.server.createContext(path, exchange -> {
+            int status = 200;
+            String body;
+            QueryMetrics.Operation operation = this.esql.getMetrics().begin(operationName);
+            try {
+                if (!exchange.getRequestURI().getPath().equals(path))
+                    throw new HttpError(404, "No such endpoint");
+                if (!exchange.getRequestMethod().equals(method))
+                    throw new HttpError(405, "Use " + method);
+                Session login = null;
+                if (needsLogin) {
+                    login = authenticate(exchange);
+                    if (needsManager && !login.isManager())
+                        throw new HttpError(403, "Invalid permissions.");
+                }
+                body = endpoint.handle(exchange, login);
+            } catch (HttpError e) {
+                status = e.status;
+                body = error(e.getMessage());
+            } catch (IllegalArgumentException e) {
+                status = 400;
+                body = error(e.getMessage());
+            } catch (Exception e) {
+                status = 500;
+                body = error(e.getMessage());
+                this.esql.getMetrics().operationFailed(e);
+            } finally {
+                operation.close();
+            }
+
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(status, bytes.length);
+            OutputStream out = exchange.getResponseBody();
+            try {
+                out.write(bytes);
+            } finally {
+                out.close();
+            }
+        });
+    }// end route
+
+    private Session authenticate(HttpExchange exchange) throws HttpError, SQLException {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        String token = null;
+        Login login = null;
+        if (header != null && header.startsWith("Bearer ")) {
+            token = header.substring(7).trim();
+            login = this.logins.get(token);
+        }
+        if (login == null)
+            throw new HttpError(401, "Log in first");
+        long now = System.currentTimeMillis();
+        if (login.isExpired(now)) {
+            this.logins.remove(token, login);
+            throw new HttpError(401, "Session expired, log in again");
+        }
+        login.lastUsed = now;
+
+        // stores were added since log in, re-read the managed stores
+        Session session = login.session;
+        if (session.isStale(this.esql)) {
+            session = session.refresh(this.esql);
+            login.session = session;
+        }
+        return session;
+    }// end authenticate
+
+    private String login(HttpExchange exchange, Session none) throws Exception {
+        Map<String, Object> request = readBody(exchange);
+        Session session = Session.login(this.esql, text(request, "name"), text(request, "password"));
+        if (session == null)
+            throw new HttpError(401, "Wrong name or password");
+
+        byte[] bytes = new byte[16];
+        this.random.nextBytes(bytes);
+        StringBuilder token = new StringBuilder();
+        for (byte b : bytes) {
+            token.append(String.format("%02x", b & 0xff));
+        }
+        this.logins.put(token.toString(), new Login(session, System.currentTimeMillis()));
+
+        StringBuilder out = new StringBuilder("{\"token\":");
+        Json.quote(out, token.toString()).append(",\"userID\":").append(session.getUserID()).append(",\"type\":");
+        return Json.quote(out, session.getType()).append('}').toString();
+    }// end login
+
+    private String logout(HttpExchange exchange, Session login) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        this.logins.remove(header.substring(7).trim());
+        return "{}";
+    }
+
+    private String stores(HttpExchange exchange, Session login) throws Exception {
+        SpatialIndex.Result nearby = this.esql.getStoreIndex().within(login.getLatitude(), login.getLongitude(),
+                Amazon.MAX_STORE_DISTANCE);
+
+        StringBuilder out = new StringBuilder("[");
+        for (int i = 0; i < nearby.size; i++) {
+            if (i > 0)
+                out.append(',');
+            out.append("{\"storeID\":").append(nearby.ids[i]).append(",\"distance\":").append(nearby.distances[i])
+                    .append('}');
+        }
+        return out.append(']').toString();
+    }// end stores
+
+    private String products(HttpExchange exchange, Session login) throws Exception {
+        int storeID = intParam(exchange, "store");
+        ResultTable products = this.esql.getCatalogCache().products(storeID);
+        return Json.table(new StringBuilder(), products, "productName", "numberOfUnits", "pricePerUnit").toString();
+    }
+
+    private String nearbyProduct(HttpExchange exchange, Session login) throws Exception {
+        ResultTable stores = this.esql.getProductSearch().nearestInStock(param(exchange, "name"), login.getLatitude(),
+                login.getLongitude());
+        return Json.table(new StringBuilder(), stores, "storeID", "numberOfUnits", "pricePerUnit", "distance")
+                .toString();
+    }
+
+    private String placeOrder(HttpExchange exchange, Session login) throws Exception {
+        Map<String, Object> request = readBody(exchange);
+        int result = this.esql.submitOrder(login.getUserID(), integer(request, "storeID"), text(request, "productName"),
+                integer(request, "units"));
+        if (result < 0)
+            throw new HttpError(409, Amazon.describeOrderResult(result));
+        return "{\"orderNumber\":" + result + "}";
+    }// end placeOrder
+
+    private String recentOrders(HttpExchange exchange, Session login) throws Exception {
+        ResultTable orders = this.esql.getRecentActivity().recentOrders(login.getUserID());
+        return Json.table(new StringBuilder(), orders, "storeID", "productName", "unitsOrdered", "orderTime")
+                .toString();
+    }
+
+    private String recentUpdates(HttpExchange exchange, Session login) throws Exception {
+        ResultTable updates = this.esql.getRecentActivity().recentUpdates(login.getUserID());
+        return Json.table(new StringBuilder(), updates, "storeID", "productName", "updatedOn").toString();
+    }
+
+    private String popularProducts(HttpExchange exchange, Session login) throws Exception {
+        int storeID = managedStore(login, intParam(exchange, "store"));
+        ResultTable products = this.esql.executeQueryAndReturnTable(Amazon.POPULAR_PRODUCTS_SQL, storeID);
+        return Json.table(new StringBuilder(), products, "productName", "totalUnits").toString();
+    }
+
+    private String popularCustomers(HttpExchange exchange, Session login) throws Exception {
+        int storeID = managedStore(login, intParam(exchange, "store"));
+        ResultTable customers = this.esql.executeQueryAndReturnTable(Amazon.POPULAR_CUSTOMERS_SQL, storeID);
+        return Json.table(new StringBuilder(), customers, "userID", "name", "orderCount").toString();
+    }
+
+    private String updateProduct(HttpExchange exchange, Session login) throws Exception {
+        Map<String, Object> request = readBody(exchange);
+        int storeID = managedStore(login, integer(request, "storeID"));
+        String productName = text(request, "productName");
+        if (!this.esql.submitProductUpdate(login.getUserID(), storeID, productName, integer(request, "units"),
+                number(request, "price")))
+            throw new HttpError(404, "Product " + productName + " not found at Store " + storeID + '.');
+        return "{}";
+    }// end updateProduct
+
+    private String supplyRequest(HttpExchange exchange, Session login) throws Exception {
+        Map<String, Object> request = readBody(exchange);
+        int storeID = managedStore(login, integer(request, "storeID"));
+        this.esql.submitSupplyRequest(login.getUserID(), integer(request, "warehouseID"), storeID,
+                text(request, "productName"), integer(request, "units"));
+        return "{}";
+    }// end supplyRequest
+
+    // the store ID, if the logged in manager runs that store
+    private static int managedStore(Session login, int storeID) throws HttpError {
+        if (login.manages(storeID))
+            return storeID;
+        throw new HttpError(403, "You do not manage Store " + storeID + '.');
+    }// end managedStore
+
+    private static Map<String, Object> readBody(HttpExchange exchange) throws IOException, HttpError {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            body.write(buffer, 0, n);
+            if (body.size() > MAX_BODY_BYTES)
+                throw new HttpError(413, "Request body too large");
+        }
+        return Json.parseObject(new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }// end readBody
+
+    private static String param(HttpExchange exchange, String name) {
+        Map<String, String> params = new HashMap<String, String>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0)
+                    params.put(pair.substring(0, eq), URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        String value = params.get(name);
+        if (value == null)
+            throw new IllegalArgumentException("Missing parameter " + name);
+        return value;
+    }// end param
+
+    private static int intParam(HttpExchange exchange, String name) {
+        String value = param(exchange, name);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Parameter " + name + " must be a number");
+        }
+    }// end intParam
+
+    private static String text(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof String))
+            throw new IllegalArgumentException("Missing string " + name);
+        return (String) value;
+    }
+
+    private static int integer(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof Long) || (Long) value != ((Long) value).intValue())
+            throw new IllegalArgumentException("Missing integer " + name);
+        return ((Long) value).intValue();
+    }
+
+    private static double number(Map<String, Object> request, String name) {
+        Object value = request.get(name);
+        if (!(value instanceof Number))
+            throw new IllegalArgumentException("Missing number " + name);
+        return ((Number) value).doubleValue();
+    }
+
+    private static String error(String message) {
+        return Json.quote(new StringBuilder("{\"error\":"), message == null ? "Internal error" : message).append('}')
+                .toString();
+    }
+
+    /**
+     * Runs the HTTP service until the process is stopped.
+     *
+     * @param args <dbname> <port> <user> [http port] [pool size] [recent limit]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3 || args.length > 6) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            AmazonServer.class.getName() +
+                            " <dbname> <port> <user> [http port] [pool size] [recent limit]");
+            return;
+        } // end if
+
+        try {
+            Class.forName("org.postgresql.Driver");
+            int httpPort = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_PORT;
+            int poolSize = args.length > 4 ? Integer.parseInt(args[4]) : ConnectionPool.DEFAULT_MAX_SIZE;
+            final Amazon esql = new Amazon(args[0], args[1], args[2], "", poolSize);
+            if (args.length > 5)
+                esql.setRecentLimit(Integer.parseInt(args[5]));
+            final AmazonServer server = new AmazonServer(esql, httpPort);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop(2);
+                esql.cleanup();
+            }));
+            server.start();
+            System.out.println("Serving on port " + server.getPort());
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }// end main
+
+}// end AmazonServer
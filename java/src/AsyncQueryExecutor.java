@@ -0,0 +1,122 @@
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class runs queries in the background so an operation can start the
+ * queries that do not depend on each other at once and wait for all of
+ * them, taking about as long as the slowest one instead of their sum. Each
+ * query runs through the Amazon helpers on its own pooled connection.
+ *
+ * There is one worker thread per pooled connection, so the background
+ * queries never wait for a connection the workers themselves hold. A caller
+ * that waits on a future should not hold a pooled connection meanwhile when
+ * the pool may be full, or it can wait out the borrow timeout.
+ *
+ * Statements run in the background count towards the QueryMetrics operation
+ * that started them.
+ *
+ */
+public class AsyncQueryExecutor {
+
+    // idle workers exit after this long and are started again on demand
+    private static final long KEEP_ALIVE_SECONDS = 60;
+
+    private static final AtomicInteger executors = new AtomicInteger();
+
+    /**
+     * Database work to run in the background.
+     */
+    public interface SqlTask<T> {
+        T call() throws SQLException;
+    }
+
+    private final Amazon esql;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * Creates an executor
+     *
+     * @param esql    the application whose helpers run the queries
+     * @param threads the number of worker threads, at most the pool size
+     */
+    public AsyncQueryExecutor(Amazon esql, int threads) {
+        this.esql = esql;
+        final int id = executors.incrementAndGet();
+        final AtomicInteger count = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), task -> {
+                    Thread thread = new Thread(task, "async-query-" + id + "-" + count.incrementAndGet());
+                    // never keeps the application from exiting
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.executor.allowCoreThreadTimeOut(true);
+    }// end AsyncQueryExecutor
+
+    /**
+     * Starts database work in the background.
+     *
+     * @param task the work
+     * @return its result, completed with the SQLException if it fails
+     */
+    public <T> CompletableFuture<T> submit(SqlTask<T> task) {
+        QueryMetrics metrics = this.esql.getMetrics();
+        QueryMetrics.Operation operation = metrics.current();
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        this.executor.execute(() -> {
+            QueryMetrics.Operation previous = metrics.resume(operation);
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            } finally {
+                metrics.resume(previous);
+            }
+        });
+        return future;
+    }// end submit
+
+    // executeQueryAndReturnTable in the background
+    public CompletableFuture<ResultTable> queryTable(String query, Object... params) {
+        return submit(() -> this.esql.executeQueryAndReturnTable(query, params));
+    }
+
+    // executeUpdate in the background
+    public CompletableFuture<Integer> update(String sql, Object... params) {
+        return submit(() -> this.esql.executeUpdate(sql, params));
+    }
+
+    /**
+     * Waits for background work and returns its result, rethrowing its
+     * failure as it was thrown.
+     *
+     * @param future the work started by submit, queryTable or update
+     * @return its result
+     * @throws java.sql.SQLException when the work failed with one
+     */
+    public static <T> T await(CompletableFuture<T> future) throws SQLException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw e;
+        }
+    }// end await
+
+    // stops the workers once the work already started is done
+    public void shutdown() {
+        this.executor.shutdown();
+    }
+
+}// end AsyncQueryExecutor
@@ -0,0 +1,393 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * This class loads orders in bulk. Orders are read from an iterator and
+ * handled in chunks: for each chunk the stock of every product involved is
+ * locked and read with one query, the orders are checked against it in
+ * arrival order, and the accepted orders and the stock decrements are written
+ * with JDBC batches and committed together. Orders that cannot be placed are
+ * collected in a rejection report instead of failing the load. The bundled
+ * driver still sends each statement of a batch on its own round trip; a chunk
+ * saves the per-order stock reads and commits.
+ *
+ * Unlike the interactive placeOrder, no distance check is made: bulk orders
+ * come from upstream channels that are not tied to the customer's location.
+ *
+ */
+public class BulkOrderIngest {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+
+    static final String DECREMENT_STOCK_SQL =
+            "UPDATE Product SET numberOfUnits = numberOfUnits - ? WHERE storeID = ? AND productName = ?::bpchar";
+    static final String INSERT_ORDER_SQL =
+            "INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime) VALUES (?, ?, ?, ?, ?)";
+
+    private final Amazon esql;
+    private final int chunkSize;
+
+    /**
+     * An order that was not placed and why.
+     */
+    public static class Rejection {
+        // position of the order in the input, starting at 1
+        public final long row;
+        public final OrderRequest order;
+        public final String reason;
+
+        Rejection(long row, OrderRequest order, String reason) {
+            this.row = row;
+            this.order = order;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return "row " + row + " (" + order + "): " + reason;
+        }
+    }// end Rejection
+
+    /**
+     * A line of the input that is not an order. It is rejected with its
+     * reason like an order that cannot be placed.
+     */
+    static class InvalidOrder extends OrderRequest {
+        final String line;
+        final String reason;
+
+        InvalidOrder(String line, String reason) {
+            super(0, 0, null, 0, null);
+            this.line = line;
+            this.reason = reason;
+        }
+
+        public String toString() {
+            return this.line;
+        }
+    }// end InvalidOrder
+
+    /**
+     * The outcome of a bulk load.
+     */
+    public static class Report {
+        public long accepted = 0;
+        public long chunks = 0;
+        public final List<Rejection> rejections = new ArrayList<Rejection>();
+    }// end Report
+
+    public BulkOrderIngest(Amazon esql) {
+        this(esql, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a bulk loader that commits every chunkSize orders
+     *
+     * @param esql      the application whose connection pool is used
+     * @param chunkSize the number of orders validated and committed together
+     */
+    public BulkOrderIngest(Amazon esql, int chunkSize) {
+        this.esql = esql;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Places every order from the iterator.
+     *
+     * @param orders the orders to place
+     * @return how many orders were accepted and which were rejected
+     * @throws java.sql.SQLException when no database connection could be obtained
+     */
+    public Report ingest(Iterator<OrderRequest> orders) throws SQLException {
+        Report report = new Report();
+        long row = 0;
+        List<OrderRequest> chunk = new ArrayList<OrderRequest>(this.chunkSize);
+
+        try (ConnectionPool.PooledConnection conn = this.esql.getConnection()) {
+            conn.getConnection().setAutoCommit(false);
+            while (orders.hasNext()) {
+                chunk.add(orders.next());
+                if (chunk.size() == this.chunkSize) {
+                    ingestChunk(conn, chunk, row + 1, report);
+                    row += chunk.size();
+                    chunk.clear();
+                }
+            }
+            if (!chunk.isEmpty())
+                ingestChunk(conn, chunk, row + 1, report);
+        }
+        return report;
+    }// end ingest
+
+    // validates, writes and commits one chunk; firstRow is the input position of chunk.get(0)
+    private void ingestChunk(ConnectionPool.PooledConnection conn, List<OrderRequest> chunk, long firstRow,
+            Report report) throws SQLException {
+        Connection connection = conn.getConnection();
+        report.chunks++;
+        try {
+            // products and customers referenced by the well-formed orders
+            TreeMap<String, OrderRequest> products = new TreeMap<String, OrderRequest>();
+            HashSet<Integer> customers = new HashSet<Integer>();
+            for (OrderRequest order : chunk) {
+                if (order.units > 0 && order.productName != null) {
+                    products.put(productKey(order.storeID, order.productName), order);
+                    customers.add(order.customerID);
+                }
+            }
+
+            Map<String, Integer> stock = lockStock(connection, products.values());
+            HashSet<Integer> knownCustomers = findCustomers(connection, customers);
+
+            // allocate stock in arrival order
+            List<OrderRequest> accepted = new ArrayList<OrderRequest>(chunk.size());
+            List<Rejection> rejected = new ArrayList<Rejection>();
+            LinkedHashMap<String, Integer> taken = new LinkedHashMap<String, Integer>();
+            for (int i = 0; i < chunk.size(); i++) {
+                OrderRequest order = chunk.get(i);
+                String reason = null;
+                String key = order.productName == null ? null : productKey(order.storeID, order.productName);
+                if (order instanceof InvalidOrder)
+                    reason = ((InvalidOrder) order).reason;
+                else if (order.units <= 0 || order.productName == null)
+                    reason = Amazon.describeOrderResult(Amazon.ORDER_INVALID_UNITS);
+                else if (!knownCustomers.contains(order.customerID))
+                    reason = Amazon.describeOrderResult(Amazon.ORDER_UNKNOWN_CUSTOMER);
+                else if (!stock.containsKey(key))
+                    reason = Amazon.describeOrderResult(Amazon.ORDER_UNKNOWN_PRODUCT);
+                else if (stock.get(key) < order.units)
+                    reason = Amazon.describeOrderResult(Amazon.ORDER_NOT_ENOUGH_STOCK);
+
+                if (reason != null) {
+                    rejected.add(new Rejection(firstRow + i, order, reason));
+                    continue;
+                }
+                stock.put(key, stock.get(key) - order.units);
+                Integer sum = taken.get(key);
+                taken.put(key, (sum == null ? 0 : sum) + order.units);
+                accepted.add(order);
+            }
+
+            if (!taken.isEmpty()) {
+                PreparedStatement decrement = conn.prepare(DECREMENT_STOCK_SQL);
+                for (Map.Entry<String, Integer> entry : taken.entrySet()) {
+                    OrderRequest order = products.get(entry.getKey());
+                    StatementCache.bind(decrement, entry.getValue(), order.storeID, order.productName);
+                    decrement.addBatch();
+                }
+                decrement.executeBatch();
+
+                Timestamp now = new Timestamp(System.currentTimeMillis());
+                PreparedStatement insert = conn.prepare(INSERT_ORDER_SQL);
+                for (OrderRequest order : accepted) {
+                    StatementCache.bind(insert, order.customerID, order.storeID, order.productName, order.units,
+                            order.orderTime == null ? now : order.orderTime);
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+
+            connection.commit();
+            for (String key : taken.keySet()) {
+                this.esql.getCatalogCache().invalidate(products.get(key).storeID);
+            }
+            report.accepted += accepted.size();
+            report.rejections.addAll(rejected);
+        } catch (SQLException e) {
+            connection.rollback();
+            for (int i = 0; i < chunk.size(); i++) {
+                report.rejections.add(new Rejection(firstRow + i, chunk.get(i), "chunk failed: " + e.getMessage()));
+            }
+        }
+    }// end ingestChunk
+
+    // locks the Product rows in key order and returns their stock
+    private static Map<String, Integer> lockStock(Connection connection, Iterable<OrderRequest> products)
+            throws SQLException {
+        Map<String, Integer> stock = new HashMap<String, Integer>();
+        List<Object> params = new ArrayList<Object>();
+        StringBuilder sql = new StringBuilder(
+                "SELECT storeID, productName, numberOfUnits FROM Product WHERE (storeID, productName) IN (");
+        for (OrderRequest order : products) {
+            sql.append(params.isEmpty() ? "(?, ?)" : ", (?, ?)");
+            params.add(order.storeID);
+            params.add(order.productName);
+        }
+        if (params.isEmpty())
+            return stock;
+        sql.append(") ORDER BY storeID, productName FOR UPDATE");
+
+        PreparedStatement stmt = connection.prepareStatement(sql.toString());
+        try {
+            StatementCache.bind(stmt, params.toArray());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                stock.put(productKey(rs.getInt(1), rs.getString(2)), rs.getInt(3));
+            }
+        } finally {
+            stmt.close();
+        }
+        return stock;
+    }// end lockStock
+
+    // returns the subset of the user IDs that exist
+    private static HashSet<Integer> findCustomers(Connection connection, HashSet<Integer> customers)
+            throws SQLException {
+        HashSet<Integer> found = new HashSet<Integer>();
+        if (customers.isEmpty())
+            return found;
+        StringBuilder sql = new StringBuilder("SELECT userID FROM Users WHERE userID IN (");
+        for (int i = 0; i < customers.size(); i++) {
+            sql.append(i == 0 ? "?" : ", ?");
+        }
+        sql.append(")");
+
+        PreparedStatement stmt = connection.prepareStatement(sql.toString());
+        try {
+            StatementCache.bind(stmt, customers.toArray());
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                found.add(rs.getInt(1));
+            }
+        } finally {
+            stmt.close();
+        }
+        return found;
+    }// end findCustomers
+
+    // productName is char(30), so values read back are blank padded
+    private static String productKey(int storeID, String productName) {
+        return storeID + "|" + productName.trim();
+    }
+
+    /**
+     * Reads orders lazily from a CSV stream with a header row naming at least
+     * the customerID, storeID, productName and unitsOrdered columns, in the
+     * format of data/orders.csv. orderTime is optional; other columns are
+     * ignored. A malformed line is returned as an order that ingest rejects,
+     * with its line number and what is wrong with it.
+     *
+     * @param reader the CSV stream
+     * @return the orders in the stream
+     * @throws java.io.IOException when the header could not be read
+     */
+    public static Iterator<OrderRequest> readCsv(final BufferedReader reader) throws IOException {
+        String header = reader.readLine();
+        List<String> columns = new ArrayList<String>();
+        for (String column : (header == null ? "" : header).split(",")) {
+            columns.add(column.trim().toLowerCase());
+        }
+        final int customer = columns.indexOf("customerid");
+        final int store = columns.indexOf("storeid");
+        final int product = columns.indexOf("productname");
+        final int units = columns.indexOf("unitsordered");
+        final int time = columns.indexOf("ordertime");
+        if (customer < 0 || store < 0 || product < 0 || units < 0)
+            throw new IOException("Missing order columns in CSV header: " + header);
+
+        return new Iterator<OrderRequest>() {
+            // the header is line 1
+            private long lineNumber = 1;
+            private String line = nextLine();
+
+            private String nextLine() {
+                try {
+                    String next;
+                    while ((next = reader.readLine()) != null) {
+                        this.lineNumber++;
+                        if (!next.trim().isEmpty())
+                            break;
+                    }
+                    return next;
+                } catch (IOException e) {
+                    throw new IllegalArgumentException(e.getMessage(), e);
+                }
+            }
+
+            public boolean hasNext() {
+                return this.line != null;
+            }
+
+            public OrderRequest next() {
+                String[] fields = this.line.split(",", -1);
+                OrderRequest order;
+                try {
+                    order = new OrderRequest(Integer.parseInt(fields[customer].trim()),
+                            Integer.parseInt(fields[store].trim()), fields[product].trim(),
+                            Integer.parseInt(fields[units].trim()),
+                            time < 0 || fields[time].trim().isEmpty() ? null : Timestamp.valueOf(fields[time].trim()));
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    order = new InvalidOrder(this.line, "Invalid order on line " + this.lineNumber + ": "
+                            + fields.length + " fields");
+                } catch (IllegalArgumentException e) {
+                    // also NumberFormatException
+                    order = new InvalidOrder(this.line, "Invalid order on line " + this.lineNumber + ": "
+                            + e.getMessage());
+                }
+                this.line = nextLine();
+                return order;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }// end readCsv
+
+    /**
+     * Loads the orders of a CSV file.
+     *
+     * @param args <dbname> <port> <user> <orders.csv> [chunk size]
+     */
+    public static void main(String[] args) {
+        if (args.length != 4 && args.length != 5) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            BulkOrderIngest.class.getName() +
+                            " <dbname> <port> <user> <orders.csv> [chunk size]");
+            return;
+        } // end if
+
+        Amazon esql = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            esql = new Amazon(args[0], args[1], args[2], "");
+            int chunkSize = args.length == 5 ? Integer.parseInt(args[4]) : DEFAULT_CHUNK_SIZE;
+
+            BufferedReader reader = new BufferedReader(new FileReader(args[3]));
+            long start = System.currentTimeMillis();
+            Report report;
+            try {
+                report = new BulkOrderIngest(esql, chunkSize).ingest(readCsv(reader));
+            } finally {
+                reader.close();
+            }
+            long elapsed = Math.max(1, System.currentTimeMillis() - start);
+
+            for (Rejection rejection : report.rejections) {
+                System.out.println("Rejected " + rejection);
+            }
+            System.out.println(report.accepted + " orders placed, " + report.rejections.size() + " rejected in "
+                    + report.chunks + " chunks (" + (report.accepted * 1000 / elapsed) + " orders/s)");
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }// end main
+
+}// end BulkOrderIngest
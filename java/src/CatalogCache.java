@@ -0,0 +1,177 @@
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps the product list of recently viewed stores in memory, so
+ * repeated catalog reads of a store do not query Product each time. It is a
+ * read-through cache: a miss loads the store's products with
+ * STORE_PRODUCTS_SQL. At most maxStores stores are kept, evicting the least
+ * recently used, and an entry older than the time to live is loaded again.
+ *
+ * The application invalidates a store whenever it writes to that store's
+ * products: product updates, supply requests and placed orders. Writes made
+ * by other processes become visible when the entry expires.
+ *
+ * The returned tables are shared and must not be modified.
+ *
+ */
+public class CatalogCache {
+
+    public static final int DEFAULT_MAX_STORES = 1000;
+    public static final long DEFAULT_TTL_MILLIS = 30000;
+
+    private final Amazon esql;
+    private final int maxStores;
+    private final long ttlMillis;
+    private final LinkedHashMap<Integer, Entry> stores;
+
+    // bumped on every invalidation, so a load that raced one is not cached
+    private long generation = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+    private long invalidations = 0;
+
+    // the products of one store and when they were read
+    private static class Entry {
+        final ResultTable products;
+        final long loadedAt;
+
+        Entry(ResultTable products, long loadedAt) {
+            this.products = products;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    public CatalogCache(Amazon esql) {
+        this(esql, DEFAULT_MAX_STORES, DEFAULT_TTL_MILLIS);
+    }
+
+    /**
+     * Creates a catalog cache
+     *
+     * @param esql      the application whose connection pool is used
+     * @param maxStores the largest number of stores kept
+     * @param ttlMillis how long a store's products are served before being read again
+     */
+    public CatalogCache(Amazon esql, int maxStores, long ttlMillis) {
+        this.esql = esql;
+        this.maxStores = maxStores;
+        this.ttlMillis = ttlMillis;
+        // access ordered so the least recently used store is evicted first
+        this.stores = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > CatalogCache.this.maxStores) {
+                    CatalogCache.this.evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }// end CatalogCache
+
+    /**
+     * Returns the products of a store, reading them from the database if they
+     * are not cached or have expired.
+     *
+     * @param storeID the store
+     * @return rows of (productName, numberOfUnits, pricePerUnit)
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable products(int storeID) throws SQLException {
+        long loadGeneration;
+        synchronized (this) {
+            Entry entry = this.stores.get(storeID);
+            if (entry != null) {
+                if (System.currentTimeMillis() - entry.loadedAt < this.ttlMillis) {
+                    this.hits++;
+                    return entry.products;
+                }
+                this.stores.remove(storeID);
+                this.expirations++;
+            }
+            this.misses++;
+            loadGeneration = this.generation;
+        }
+
+        // read outside the lock so other stores are served meanwhile
+        long loadedAt = System.currentTimeMillis();
+        ResultTable products = this.esql.executeQueryAndReturnTable(Amazon.STORE_PRODUCTS_SQL, storeID);
+
+        synchronized (this) {
+            if (this.generation == loadGeneration)
+                this.stores.put(storeID, new Entry(products, loadedAt));
+        }
+        return products;
+    }// end products
+
+    /**
+     * Returns the row of a product in a table returned by products.
+     *
+     * @param products    the products of a store
+     * @param productName the product to find
+     * @return the row index, or -1 if the store does not sell the product
+     */
+    public static int find(ResultTable products, String productName) {
+        String name = productName.trim();
+        for (int row = 0; row < products.rowCount(); row++) {
+            if (products.getString(row, 0).trim().equals(name))
+                return row;
+        }
+        return -1;
+    }// end find
+
+    /**
+     * Drops a store's products, so the next read sees the database.
+     *
+     * @param storeID the store whose products changed
+     */
+    public synchronized void invalidate(int storeID) {
+        this.generation++;
+        if (this.stores.remove(storeID) != null)
+            this.invalidations++;
+    }
+
+    public synchronized void clear() {
+        this.generation++;
+        this.invalidations += this.stores.size();
+        this.stores.clear();
+    }
+
+    public synchronized int size() {
+        return this.stores.size();
+    }
+
+    public synchronized long getHits() {
+        return this.hits;
+    }
+
+    public synchronized long getMisses() {
+        return this.misses;
+    }
+
+    public synchronized long getEvictions() {
+        return this.evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return this.expirations;
+    }
+
+    public synchronized long getInvalidations() {
+        return this.invalidations;
+    }
+
+    // one line summary of the counters
+    public synchronized String getStats() {
+        long reads = this.hits + this.misses;
+        return String.format("%d stores cached, %d hits, %d misses (%.1f%% hit rate), %d evictions, "
+                + "%d expirations, %d invalidations", this.stores.size(), this.hits, this.misses,
+                reads == 0 ? 0.0 : 100.0 * this.hits / reads, this.evictions, this.expirations, this.invalidations);
+    }// end getStats
+
+}// end CatalogCache
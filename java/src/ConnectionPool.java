@@ -0,0 +1,268 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This class defines a bounded pool of physical connections to the database.
+ * Every operation checks a connection out, runs its statements and hands it
+ * back, so many threads can share a small number of connections. Each pooled
+ * connection carries its own StatementCache.
+ *
+ */
+public class ConnectionPool {
+
+    public static final int DEFAULT_MAX_SIZE = 10;
+    public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 5 * 60 * 1000L;
+    public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30 * 1000L;
+
+    // connections idle for longer than this are validated before being handed out
+    public static final long VALIDATE_AFTER_IDLE_MILLIS = 30 * 1000L;
+
+    private final String url;
+    private final String user;
+    private final String passwd;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+
+    // one permit per connection that may exist, idle or in use
+    private final Semaphore permits;
+
+    // idle connections, most recently used first
+    private final ArrayDeque<PooledConnection> idle = new ArrayDeque<PooledConnection>();
+
+    private final Thread evictor;
+    private volatile boolean closed = false;
+
+    /**
+     * A connection checked out of the pool. Closing it returns the physical
+     * connection to the pool instead of closing it.
+     */
+    public static class PooledConnection implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection _connection;
+        private final StatementCache _statements;
+        private long lastUsed;
+        private boolean broken = false;
+
+        // set by the first close of a checkout, so later ones do nothing
+        private final AtomicBoolean returned = new AtomicBoolean(false);
+
+        PooledConnection(ConnectionPool pool, Connection connection) {
+            this.pool = pool;
+            this._connection = connection;
+            this._statements = new StatementCache(connection);
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        // the underlying physical connection
+        public Connection getConnection() {
+            return this._connection;
+        }
+
+        /**
+         * Returns the cached statement of this connection for a SQL template
+         * with the given values bound to its placeholders.
+         *
+         * @param sql    the SQL template
+         * @param params the values for the placeholders
+         * @return a ready to execute statement
+         * @throws java.sql.SQLException when the statement could not be prepared
+         */
+        public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+            return this._statements.prepare(sql, params);
+        }
+
+        /**
+         * Marks the connection as unusable so it is discarded instead of being
+         * returned to the pool.
+         */
+        public void invalidate() {
+            this.broken = true;
+        }
+
+        // returns the connection to the pool; closing it again does nothing
+        public void close() {
+            if (this.returned.compareAndSet(false, true))
+                this.pool.release(this);
+        }
+
+        void closePhysical() {
+            this._statements.close();
+            try {
+                this._connection.close();
+            } catch (SQLException e) {
+                // ignored.
+            }
+        }
+    }// end PooledConnection
+
+    public ConnectionPool(String url, String user, String passwd) {
+        this(url, user, passwd, DEFAULT_MAX_SIZE, DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_BORROW_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Creates a new, empty pool. Connections are opened on demand.
+     *
+     * @param url                 the JDBC connection URL
+     * @param user                the user name used to login to the database
+     * @param passwd              the user login password
+     * @param maxSize             maximum number of open connections
+     * @param idleTimeoutMillis   idle connections older than this are closed
+     * @param borrowTimeoutMillis how long borrow() waits for a free connection
+     */
+    public ConnectionPool(String url, String user, String passwd, int maxSize,
+            long idleTimeoutMillis, long borrowTimeoutMillis) {
+        this.url = url;
+        this.user = user;
+        this.passwd = passwd;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = new Thread(new Runnable() {
+            public void run() {
+                while (!closed) {
+                    try {
+                        Thread.sleep(Math.max(1000L, ConnectionPool.this.idleTimeoutMillis / 2));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    evictIdle();
+                }
+            }
+        }, "connection-pool-evictor");
+        this.evictor.setDaemon(true);
+        this.evictor.start();
+    }// end ConnectionPool
+
+    /**
+     * Checks a connection out of the pool, opening a new one if no idle
+     * connection is available and the pool is not full. Blocks for up to the
+     * borrow timeout when every connection is in use.
+     *
+     * @return a connection that must be closed by the caller
+     * @throws java.sql.SQLException when no connection could be obtained
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (this.closed)
+            throw new SQLException("Connection pool is closed");
+
+        try {
+            if (!this.permits.tryAcquire(this.borrowTimeoutMillis, TimeUnit.MILLISECONDS))
+                throw new SQLException("Timed out waiting for a database connection");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection");
+        }
+
+        try {
+            PooledConnection conn;
+            while ((conn = pollIdle()) != null) {
+                if (isUsable(conn)) {
+                    conn.returned.set(false);
+                    return conn;
+                }
+                conn.closePhysical();
+            }
+            return new PooledConnection(this, DriverManager.getConnection(this.url, this.user, this.passwd));
+        } catch (SQLException e) {
+            this.permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }// end borrow
+
+    /**
+     * Closes every idle connection and refuses further borrows. Connections
+     * still checked out are closed as they are returned.
+     */
+    public void close() {
+        this.closed = true;
+        this.evictor.interrupt();
+        PooledConnection conn;
+        while ((conn = pollIdle()) != null) {
+            conn.closePhysical();
+        }
+    }// end close
+
+    // puts a connection back in the idle list, or discards it if it is broken
+    void release(PooledConnection conn) {
+        try {
+            boolean reusable = !this.closed && !conn.broken && !conn._connection.isClosed();
+            if (reusable && !conn._connection.getAutoCommit()) {
+                // an unfinished transaction never leaks into the next borrower
+                conn._connection.rollback();
+                conn._connection.setAutoCommit(true);
+            }
+            if (reusable) {
+                conn.lastUsed = System.currentTimeMillis();
+                synchronized (this.idle) {
+                    this.idle.addFirst(conn);
+                }
+            } else {
+                conn.closePhysical();
+            }
+        } catch (SQLException e) {
+            conn.closePhysical();
+        } finally {
+            this.permits.release();
+        }
+    }// end release
+
+    private PooledConnection pollIdle() {
+        synchronized (this.idle) {
+            return this.idle.pollFirst();
+        }
+    }
+
+    // checks a connection that has been sitting idle before handing it out
+    private boolean isUsable(PooledConnection conn) {
+        try {
+            if (conn._connection.isClosed())
+                return false;
+            if (System.currentTimeMillis() - conn.lastUsed < VALIDATE_AFTER_IDLE_MILLIS)
+                return true;
+            Statement stmt = conn._connection.createStatement();
+            try {
+                ResultSet rs = stmt.executeQuery("SELECT 1");
+                return rs.next();
+            } finally {
+                stmt.close();
+            }
+        } catch (SQLException e) {
+            return false;
+        }
+    }// end isUsable
+
+    // closes the connections that have been idle for longer than the idle timeout
+    private void evictIdle() {
+        long cutoff = System.currentTimeMillis() - this.idleTimeoutMillis;
+        List<PooledConnection> expired = new ArrayList<PooledConnection>();
+        synchronized (this.idle) {
+            Iterator<PooledConnection> it = this.idle.iterator();
+            while (it.hasNext()) {
+                PooledConnection conn = it.next();
+                if (conn.lastUsed < cutoff) {
+                    it.remove();
+                    expired.add(conn);
+                }
+            }
+        }
+        for (PooledConnection conn : expired) {
+            conn.closePhysical();
+        }
+    }// end evictIdle
+
+}// end ConnectionPool
@@ -0,0 +1,725 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class loads the data/*.csv files into the database from any
+ * directory, streaming them from the client instead of having the server
+ * COPY from fixed paths.
+ *
+ * Tables are loaded in phases that follow the foreign keys: Users and
+ * Warehouse, then Store, then Product, then Orders, ProductSupplyRequests
+ * and ProductUpdates. The tables of a phase load in parallel. Each table is
+ * read by one thread, which checks every row against the column types and
+ * hands chunks of good rows to writer threads. The writers send a chunk with
+ * client-side COPY when the JDBC driver has a CopyManager, and as one
+ * batched INSERT otherwise, and commit each chunk on its own. Memory use is
+ * bounded by a few chunks per table, whatever the size of the files.
+ *
+ * Rows that fail the checks are written to the error file with the reason.
+ * A chunk the database rejects, for example for a duplicate key or a missing
+ * referenced row, is split in halves and retried until the failing rows are
+ * isolated and written to the error file too.
+ *
+ * Orders are loaded with the orders_rollup trigger disabled and the rollups
+ * are rebuilt once afterwards. Loaded Orders and ProductUpdates rows of
+ * months without a partition land in the default partitions and are moved
+ * to partitions of their own after the load. Finally every serial sequence
+ * is set past the largest ID loaded and the tables are analyzed.
+ *
+ */
+public class CsvLoader {
+
+    public static final int DEFAULT_THREADS = 4;
+    public static final int DEFAULT_CHUNK_ROWS = 5000;
+    public static final String DEFAULT_ERROR_FILE = "load_errors.txt";
+
+    // column kinds
+    static final int INT = 0;
+    static final int DECIMAL = 1;
+    static final int FLOAT = 2;
+    static final int CHAR = 3;
+    static final int TIMESTAMP = 4;
+    static final int DATE = 5;
+
+    /**
+     * A column of a loaded table and the checks its values must pass.
+     */
+    static class Column {
+        final String name;
+        final int kind;
+        // the length of a char column, the precision of a decimal column
+        final int precision;
+        final int scale;
+        final boolean notNull;
+
+        Column(String name, int kind, int precision, int scale, boolean notNull) {
+            this.name = name;
+            this.kind = kind;
+            this.precision = precision;
+            this.scale = scale;
+            this.notNull = notNull;
+        }
+    }// end Column
+
+    /**
+     * A table, the file it is loaded from and its load phase.
+     */
+    static class Table {
+        final String name;
+        final String file;
+        final int phase;
+        // the serial ID column, or null
+        final String serial;
+        final Column[] columns;
+
+        Table(String name, String file, int phase, String serial, Column... columns) {
+            this.name = name;
+            this.file = file;
+            this.phase = phase;
+            this.serial = serial;
+            this.columns = columns;
+        }
+    }// end Table
+
+    private static Column integer(String name, boolean notNull) {
+        return new Column(name, INT, 0, 0, notNull);
+    }
+
+    private static Column decimal(String name, int precision, int scale) {
+        return new Column(name, DECIMAL, precision, scale, true);
+    }
+
+    private static Column text(String name, int length) {
+        return new Column(name, CHAR, length, 0, true);
+    }
+
+    // the tables of sql/src/create_tables.sql, in load order
+    static final Table[] TABLES = {
+            new Table("Users", "users.csv", 0, "userID",
+                    integer("userID", true), text("name", 50), text("password", 11),
+                    decimal("latitude", 8, 6), decimal("longitude", 9, 6), text("type", 10)),
+            new Table("Warehouse", "warehouse.csv", 0, null,
+                    integer("warehouseID", true), integer("area", false),
+                    decimal("latitude", 8, 6), decimal("longitude", 9, 6)),
+            new Table("Store", "stores.csv", 1, null,
+                    integer("storeID", true), decimal("latitude", 8, 6), decimal("longitude", 9, 6),
+                    integer("managerID", true), new Column("dateEstablished", DATE, 0, 0, false)),
+            new Table("Product", "products.csv", 2, null,
+                    integer("storeID", true), text("productName", 30), integer("numberOfUnits", true),
+                    new Column("pricePerUnit", FLOAT, 0, 0, true)),
+            new Table("Orders", "orders.csv", 3, "orderNumber",
+                    integer("orderNumber", true), integer("customerID", true), integer("storeID", true),
+                    text("productName", 30), integer("unitsOrdered", true),
+                    new Column("orderTime", TIMESTAMP, 0, 0, true)),
+            new Table("ProductSupplyRequests", "productSupplyRequests.csv", 3, "requestNumber",
+                    integer("requestNumber", true), integer("managerID", true), integer("warehouseID", true),
+                    integer("storeID", true), text("productName", 30), integer("unitsRequested", true)),
+            new Table("ProductUpdates", "productUpdates.csv", 3, "updateNumber",
+                    integer("updateNumber", true), integer("managerID", true), integer("storeID", true),
+                    text("productName", 30), new Column("updatedOn", TIMESTAMP, 0, 0, true)),
+    };
+
+    /**
+     * What happened to the rows of one file.
+     */
+    public static class TableReport {
+        public final String table;
+        public long rows = 0;
+        public final AtomicLong loaded = new AtomicLong();
+        public final AtomicLong rejected = new AtomicLong();
+        public long millis = 0;
+
+        TableReport(String table) {
+            this.table = table;
+        }
+
+        public String toString() {
+            return String.format("%-22s %10d rows %10d loaded %8d rejected %8d ms", this.table, this.rows,
+                    this.loaded.get(), this.rejected.get(), this.millis);
+        }
+    }// end TableReport
+
+    // good rows on their way to a writer, with their line numbers and text
+    private static class Chunk {
+        final Object[][] values;
+        final long[] lines;
+        final String[] raw;
+        int size = 0;
+
+        Chunk(int capacity) {
+            this.values = new Object[capacity][];
+            this.lines = new long[capacity];
+            this.raw = new String[capacity];
+        }
+    }// end Chunk
+
+    // tells a writer that no chunks follow
+    private static final Chunk END = new Chunk(0);
+
+    private final Amazon esql;
+    private final int threads;
+    private final int chunkRows;
+    private final Writer errors;
+
+    /**
+     * Creates a loader
+     *
+     * @param esql      the application whose connection pool is used
+     * @param threads   the number of writer threads shared by the tables of a phase
+     * @param chunkRows the number of rows sent and committed together
+     * @param errors    where rejected rows are written
+     */
+    public CsvLoader(Amazon esql, int threads, int chunkRows, Writer errors) {
+        this.esql = esql;
+        this.threads = threads;
+        this.chunkRows = chunkRows;
+        this.errors = errors;
+    }// end CsvLoader
+
+    /**
+     * Loads every table whose file is in the directory. Missing files are
+     * skipped.
+     *
+     * @param dataDir  the directory holding the csv files
+     * @param truncate whether to empty the tables first
+     * @return one report per loaded file
+     * @throws java.lang.Exception when a file cannot be read or a table cannot be written at all
+     */
+    public List<TableReport> load(File dataDir, boolean truncate) throws Exception {
+        if (truncate)
+            this.esql.executeUpdate("TRUNCATE Users, Warehouse, Store, Product, Orders, ProductSupplyRequests, "
+                    + "ProductUpdates, StoreProductSales, StoreCustomerOrders");
+
+        List<TableReport> reports = new ArrayList<TableReport>();
+        boolean orders = false;
+        for (int phase = 0; phase <= TABLES[TABLES.length - 1].phase; phase++) {
+            List<Table> tables = new ArrayList<Table>();
+            long totalBytes = 0;
+            for (Table table : TABLES) {
+                File file = new File(dataDir, table.file);
+                if (table.phase == phase && file.isFile()) {
+                    tables.add(table);
+                    totalBytes += file.length();
+                }
+            }
+            if (tables.isEmpty())
+                continue;
+
+            if (phase == TABLES[TABLES.length - 1].phase) {
+                // the rollups are rebuilt once after the load instead of row by row
+                this.esql.executeUpdate("ALTER TABLE Orders DISABLE TRIGGER orders_rollup");
+                orders = true;
+            }
+            try {
+                reports.addAll(loadPhase(dataDir, tables, totalBytes));
+            } finally {
+                if (orders)
+                    this.esql.executeUpdate("ALTER TABLE Orders ENABLE TRIGGER orders_rollup");
+            }
+        }
+
+        if (orders) {
+            // the loaded months go to partitions of their own before the rollups read them
+            this.esql.executeQuery("SELECT partition_maintenance(" + PartitionMaintenance.DEFAULT_MONTHS_AHEAD + ")");
+            this.esql.executeQuery("SELECT rebuild_rollups()");
+        }
+        resetSequences();
+        for (Table table : TABLES) {
+            this.esql.executeUpdate("ANALYZE " + table.name);
+        }
+        return reports;
+    }// end load
+
+    // loads the tables of one phase in parallel, sharing the writers by file size
+    private List<TableReport> loadPhase(final File dataDir, List<Table> tables, long totalBytes)
+            throws Exception {
+        final List<TableReport> reports = new ArrayList<TableReport>();
+        final Exception[] failures = new Exception[tables.size()];
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < tables.size(); i++) {
+            final int index = i;
+            final Table table = tables.get(i);
+            final TableReport report = new TableReport(table.name);
+            final File file = new File(dataDir, table.file);
+            final int writers = (int) Math.max(1, Math.round((double) this.threads * file.length()
+                    / Math.max(1, totalBytes)));
+            reports.add(report);
+            readers.add(new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        loadTable(table, file, writers, report);
+                    } catch (Exception e) {
+                        failures[index] = e;
+                    }
+                }
+            }, "load-" + table.name));
+        }
+
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        for (Exception failure : failures) {
+            if (failure != null)
+                throw failure;
+        }
+        return reports;
+    }// end loadPhase
+
+    /**
+     * Reads one file, checking each row, and feeds the good rows to writer
+     * threads in chunks.
+     */
+    void loadTable(Table table, File file, int writers, final TableReport report) throws Exception {
+        long start = System.currentTimeMillis();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8), 1 << 20);
+        try {
+            // the position of each table column in the file, or -1
+            List<String> header = parseRecord(reader.readLine());
+            if (header == null)
+                throw new IOException(file + " is empty");
+            final List<Column> columns = new ArrayList<Column>();
+            final List<Integer> sources = new ArrayList<Integer>();
+            for (Column column : table.columns) {
+                int source = -1;
+                for (int i = 0; i < header.size(); i++) {
+                    if (header.get(i).trim().equalsIgnoreCase(column.name))
+                        source = i;
+                }
+                if (source < 0 && !column.name.equals(table.serial))
+                    throw new IOException(file + " has no " + column.name + " column");
+                if (source >= 0) {
+                    columns.add(column);
+                    sources.add(source);
+                }
+            }
+
+            StringBuilder names = new StringBuilder();
+            StringBuilder marks = new StringBuilder();
+            for (Column column : columns) {
+                names.append(names.length() == 0 ? "" : ", ").append(column.name);
+                marks.append(marks.length() == 0 ? "?" : ", ?");
+            }
+            final String copySql = "COPY " + table.name + " (" + names + ") FROM STDIN WITH CSV";
+            final String insertSql = "INSERT INTO " + table.name + " (" + names + ") VALUES (" + marks + ")";
+            final String fileName = file.getName();
+
+            final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(2 * writers);
+            final Exception[] failure = new Exception[1];
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int i = 0; i < writers; i++) {
+                threads.add(new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            writeChunks(queue, fileName, copySql, insertSql, report);
+                        } catch (Exception e) {
+                            synchronized (failure) {
+                                failure[0] = e;
+                            }
+                            // keep draining so the reader is never blocked
+                            drain(queue);
+                        }
+                    }
+                }, "load-" + table.name + "-" + i));
+            }
+            for (Thread thread : threads) {
+                thread.start();
+            }
+
+            try {
+                Chunk chunk = new Chunk(this.chunkRows);
+                long line = 1;
+                String text;
+                while ((text = reader.readLine()) != null) {
+                    long first = ++line;
+                    // a quoted field may span lines
+                    while (openQuote(text)) {
+                        String more = reader.readLine();
+                        if (more == null)
+                            break;
+                        text += "\n" + more;
+                        line++;
+                    }
+                    if (text.trim().isEmpty())
+                        continue;
+                    report.rows++;
+
+                    Object[] values = new Object[columns.size()];
+                    String reason = check(parseRecord(text), columns, sources, values);
+                    if (reason != null) {
+                        reject(fileName, first, reason, text, report);
+                        continue;
+                    }
+                    chunk.values[chunk.size] = values;
+                    chunk.lines[chunk.size] = first;
+                    chunk.raw[chunk.size] = text;
+                    if (++chunk.size == this.chunkRows) {
+                        queue.put(chunk);
+                        chunk = new Chunk(this.chunkRows);
+                    }
+                }
+                if (chunk.size > 0)
+                    queue.put(chunk);
+            } finally {
+                for (int i = 0; i < writers; i++) {
+                    queue.put(END);
+                }
+                for (Thread thread : threads) {
+                    thread.join();
+                }
+            }
+            synchronized (failure) {
+                if (failure[0] != null)
+                    throw failure[0];
+            }
+        } finally {
+            reader.close();
+            report.millis = System.currentTimeMillis() - start;
+        }
+    }// end loadTable
+
+    // one writer: sends and commits chunks until END
+    private void writeChunks(BlockingQueue<Chunk> queue, String fileName, String copySql, String insertSql,
+            TableReport report) throws Exception {
+        try (ConnectionPool.PooledConnection conn = this.esql.getConnection()) {
+            Connection connection = conn.getConnection();
+            connection.setAutoCommit(false);
+            Object copyManager = copyManager(connection);
+            try {
+                Chunk chunk;
+                while ((chunk = queue.take()) != END) {
+                    report.loaded.addAndGet(write(conn, copyManager, chunk, 0, chunk.size, fileName, copySql,
+                            insertSql, report));
+                }
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }// end writeChunks
+
+    /**
+     * Writes rows from to to of a chunk in one transaction. When the database
+     * rejects them, the rows are split in halves and retried, so only the
+     * rows that fail on their own are rejected.
+     *
+     * @return the number of rows written
+     */
+    private long write(ConnectionPool.PooledConnection conn, Object copyManager, Chunk chunk, int from, int to,
+            String fileName, String copySql, String insertSql, TableReport report) throws SQLException, IOException {
+        Connection connection = conn.getConnection();
+        try {
+            if (copyManager != null)
+                copyIn(copyManager, copySql, csv(chunk, from, to));
+            else
+                insertBatch(conn.prepare(insertSql), chunk, from, to);
+            connection.commit();
+            return to - from;
+        } catch (SQLException e) {
+            connection.rollback();
+            if (to - from == 1) {
+                reject(fileName, chunk.lines[from], e.getMessage().trim(), chunk.raw[from], report);
+                return 0;
+            }
+            int middle = (from + to) >>> 1;
+            return write(conn, copyManager, chunk, from, middle, fileName, copySql, insertSql, report)
+                    + write(conn, copyManager, chunk, middle, to, fileName, copySql, insertSql, report);
+        }
+    }// end write
+
+    private static void insertBatch(PreparedStatement insert, Chunk chunk, int from, int to) throws SQLException {
+        for (int row = from; row < to; row++) {
+            StatementCache.bind(insert, chunk.values[row]);
+            insert.addBatch();
+        }
+        try {
+            insert.executeBatch();
+        } finally {
+            insert.clearBatch();
+        }
+    }// end insertBatch
+
+    // the rows as COPY CSV input: nulls are empty, text is quoted when needed
+    private static String csv(Chunk chunk, int from, int to) {
+        StringBuilder out = new StringBuilder((to - from) * 64);
+        for (int row = from; row < to; row++) {
+            Object[] values = chunk.values[row];
+            for (int col = 0; col < values.length; col++) {
+                if (col > 0)
+                    out.append(',');
+                Object value = values[col];
+                if (value == null)
+                    continue;
+                if (value instanceof BigDecimal) {
+                    out.append(((BigDecimal) value).toPlainString());
+                } else if (value instanceof String) {
+                    String text = (String) value;
+                    out.append('"').append(text.indexOf('"') < 0 ? text : text.replace("\"", "\"\"")).append('"');
+                } else {
+                    out.append(value);
+                }
+            }
+            out.append('\n');
+        }
+        return out.toString();
+    }// end csv
+
+    /**
+     * Checks the fields of a row and converts them to the column types.
+     *
+     * @return null if the row is good, otherwise the reason it is rejected
+     */
+    static String check(List<String> fields, List<Column> columns, List<Integer> sources, Object[] values) {
+        for (int i = 0; i < columns.size(); i++) {
+            Column column = columns.get(i);
+            int source = sources.get(i);
+            if (source >= fields.size())
+                return "missing " + column.name;
+            String field = fields.get(source).trim();
+            if (field.isEmpty()) {
+                if (column.notNull)
+                    return column.name + " is empty";
+                values[i] = null;
+                continue;
+            }
+
+            try {
+                switch (column.kind) {
+                    case INT:
+                        values[i] = Integer.valueOf(field);
+                        break;
+                    case DECIMAL:
+                        BigDecimal number = new BigDecimal(field);
+                        if (number.precision() - number.scale() > column.precision - column.scale)
+                            return column.name + " " + field + " out of range for decimal(" + column.precision
+                                    + "," + column.scale + ")";
+                        values[i] = number;
+                        break;
+                    case FLOAT:
+                        values[i] = Double.valueOf(field);
+                        break;
+                    case CHAR:
+                        if (field.length() > column.precision)
+                            return column.name + " longer than " + column.precision + " characters";
+                        values[i] = field;
+                        break;
+                    case TIMESTAMP:
+                        values[i] = Timestamp.valueOf(field.length() == 10 ? field + " 00:00:00" : field.replace('T', ' '));
+                        break;
+                    default:
+                        values[i] = parseDate(field);
+                }
+            } catch (IllegalArgumentException e) {
+                return "bad " + column.name + " " + field;
+            }
+        }
+        return null;
+    }// end check
+
+    // yyyy-mm-dd, or m/d/yyyy as in data/stores.csv
+    static Date parseDate(String field) {
+        String[] parts = field.split("/");
+        if (parts.length != 3)
+            return Date.valueOf(field);
+        int month = Integer.parseInt(parts[0]);
+        int day = Integer.parseInt(parts[1]);
+        if (month < 1 || month > 12 || day < 1 || day > 31)
+            throw new IllegalArgumentException(field);
+        return Date.valueOf(Integer.parseInt(parts[2]) + "-" + month + "-" + day);
+    }// end parseDate
+
+    /**
+     * Splits one CSV record into fields. Fields may be quoted, with doubled
+     * quotes inside.
+     *
+     * @param record the record, or null at the end of the file
+     * @return the fields, or null
+     */
+    static List<String> parseRecord(String record) {
+        if (record == null)
+            return null;
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"')
+                    field.append(c);
+                else if (i + 1 < record.length() && record.charAt(i + 1) == '"')
+                    field.append(record.charAt(++i));
+                else
+                    quoted = false;
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }// end parseRecord
+
+    // true when the text ends inside a quoted field
+    private static boolean openQuote(String text) {
+        boolean quoted = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"')
+                quoted = !quoted;
+        }
+        return quoted;
+    }
+
+    private void reject(String fileName, long line, String reason, String raw, TableReport report)
+            throws IOException {
+        report.rejected.incrementAndGet();
+        synchronized (this.errors) {
+            this.errors.write(fileName + "\t" + line + "\t" + reason.replace('\n', ' ') + "\t"
+                    + raw.replace('\n', ' ') + "\n");
+        }
+    }
+
+    // sets each serial sequence so the next ID follows the largest one loaded
+    private void resetSequences() throws SQLException {
+        for (Table table : TABLES) {
+            if (table.serial != null)
+                this.esql.executeQuery("SELECT setval(pg_get_serial_sequence('" + table.name.toLowerCase() + "', '"
+                        + table.serial.toLowerCase() + "'), (SELECT coalesce(max(" + table.serial + "), 0) + 1 FROM "
+                        + table.name + "), false)");
+        }
+    }// end resetSequences
+
+    /**
+     * Returns a CopyManager for the connection, or null when the driver has
+     * none. The class is looked up by reflection because the bundled driver
+     * predates client-side COPY.
+     */
+    private static Object copyManager(Connection connection) {
+        try {
+            Class<?> base = Class.forName("org.postgresql.core.BaseConnection");
+            if (!base.isInstance(connection))
+                return null;
+            return Class.forName("org.postgresql.copy.CopyManager").getConstructor(base).newInstance(connection);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }// end copyManager
+
+    private static void copyIn(Object copyManager, String sql, String data) throws SQLException {
+        try {
+            Method copyIn = copyManager.getClass().getMethod("copyIn", String.class, Reader.class);
+            copyIn.invoke(copyManager, sql, new StringReader(data));
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException)
+                throw (SQLException) cause;
+            throw new SQLException("COPY failed: " + cause);
+        } catch (ReflectiveOperationException e) {
+            throw new SQLException("COPY failed: " + e);
+        }
+    }// end copyIn
+
+    private static void drain(BlockingQueue<Chunk> queue) {
+        try {
+            while (queue.take() != END) {
+                // discarded, the load has failed
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Loads a directory of csv files.
+     *
+     * @param args <dbname> <port> <user> <data dir> [threads=N] [chunk=N] [errors=file] [truncate=true]
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            CsvLoader.class.getName() +
+                            " <dbname> <port> <user> <data dir> [threads=N] [chunk=N] [errors=file] [truncate=true]");
+            return;
+        } // end if
+
+        int threads = DEFAULT_THREADS;
+        int chunkRows = DEFAULT_CHUNK_ROWS;
+        String errorFile = DEFAULT_ERROR_FILE;
+        boolean truncate = false;
+        for (int i = 4; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            String value = option.length == 2 ? option[1] : "";
+            if (option[0].equals("threads"))
+                threads = Integer.parseInt(value);
+            else if (option[0].equals("chunk"))
+                chunkRows = Integer.parseInt(value);
+            else if (option[0].equals("errors"))
+                errorFile = value;
+            else if (option[0].equals("truncate"))
+                truncate = Boolean.parseBoolean(value);
+            else {
+                System.err.println("Unknown option " + args[i]);
+                return;
+            }
+        }
+
+        Amazon esql = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            // every writer holds a connection, plus one for the statements between phases
+            esql = new Amazon(args[0], args[1], args[2], "", threads + TABLES.length);
+
+            long start = System.currentTimeMillis();
+            List<TableReport> reports;
+            try (Writer errors = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(errorFile),
+                    StandardCharsets.UTF_8))) {
+                errors.write("file\tline\treason\trow\n");
+                reports = new CsvLoader(esql, threads, chunkRows, errors).load(new File(args[3]), truncate);
+            }
+
+            long rejected = 0;
+            for (TableReport report : reports) {
+                System.out.println(report);
+                rejected += report.rejected.get();
+            }
+            System.out.println("Loaded in " + (System.currentTimeMillis() - start) + " ms"
+                    + (rejected > 0 ? ", " + rejected + " rejected rows written to " + errorFile : ""));
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }// end main
+
+}// end CsvLoader
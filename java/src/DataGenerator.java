@@ -0,0 +1,414 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * This class writes a synthetic dataset in the format of data/*.csv, for
+ * every table of create_tables.sql, so the application can be measured at
+ * sizes the bundled data does not reach. Scale 1 matches the bundled data:
+ * 100 users, 5 warehouses, 20 stores of 10 products, 500 orders, 50 product
+ * updates and 10 supply requests. Every count grows linearly with the
+ * scale, so scale 20000 writes 10 million orders.
+ *
+ * The data is deterministic for a seed and keeps referential integrity.
+ * Users and stores are clustered around cities whose sizes follow a Zipf
+ * distribution, in the 0 to 100 latitude and longitude space, and customers
+ * order from stores of their own city, so most orders are within range.
+ * Product popularity within a store follows a Zipf distribution, and orders
+ * and product updates are spread over a period in time order.
+ *
+ * Options are given as name=value:
+ *   scale     multiplies every table size (default 1)
+ *   seed      random seed (default 1)
+ *   products  products per store (default 10)
+ *   days      days the orders and updates are spread over (default 365)
+ *   zipf      exponent of the product and city popularity (default 1.0)
+ *
+ */
+public class DataGenerator {
+
+    // the products of the bundled data, most popular first; larger catalogs add numbered products
+    private static final String[] PRODUCT_NAMES = {
+            "Pepsi", "7up", "Egg", "Donuts", "Brisk", "Lemonade", "Orange Juice", "Ice Cream",
+            "Hot and Sour Soup", "Pudding" };
+    private static final String[] FIRST_NAMES = {
+            "Amy", "Bob", "Carla", "Dev", "Elena", "Favian", "Grace", "Hiro", "Ines", "Jena", "Kofi", "Luz",
+            "Mckenna", "Nadia", "Omar", "Priya", "Quinn", "Rosa", "Sam", "Tariq" };
+    private static final String[] LAST_NAMES = {
+            "Kohler", "Smith", "Nguyen", "Garcia", "Okafor", "Chen", "Novak", "Silva", "Haddad", "Ito" };
+
+    // where the orders and updates start, as in the bundled data. Times are
+    // counted in UTC so every day has 24 hours whatever the local time zone.
+    private static final long START_MILLIS = LocalDateTime.of(2016, 9, 10, 13, 1).toEpochSecond(ZoneOffset.UTC) * 1000;
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+
+    // how far users and stores spread around their city
+    private static final double CITY_SPREAD = 6.0;
+
+    private final long seed;
+    private final double zipf;
+    private final int productsPerStore;
+    private final long spanMillis;
+
+    private final int users;
+    private final int managers;
+    private final int warehouses;
+    private final int stores;
+    private final long orders;
+    private final long productUpdates;
+    private final long supplyRequests;
+
+    // generated once, shared by the tables that refer to them
+    private double[][] cities;
+    private double[] cityWeights;
+    private int[] userCity;
+    private int[][] storesByCity;
+    private int[] storeManager;
+
+    /**
+     * Creates a generator
+     *
+     * @param scale            multiplies every table size
+     * @param seed             the random seed
+     * @param productsPerStore the number of products every store sells
+     * @param days             the number of days orders and updates are spread over
+     * @param zipf             the exponent of the product and city popularity
+     */
+    public DataGenerator(double scale, long seed, int productsPerStore, int days, double zipf) {
+        this.seed = seed;
+        this.zipf = zipf;
+        this.productsPerStore = productsPerStore;
+        this.spanMillis = days * 24L * 60 * 60 * 1000;
+
+        this.users = (int) Math.max(3, Math.round(100 * scale));
+        this.managers = (int) Math.max(1, Math.round(6 * scale));
+        this.warehouses = (int) Math.max(1, Math.round(5 * scale));
+        this.stores = (int) Math.max(1, Math.round(20 * scale));
+        this.orders = Math.round(500 * scale);
+        this.productUpdates = Math.round(50 * scale);
+        this.supplyRequests = Math.round(10 * scale);
+    }// end DataGenerator
+
+    /**
+     * Writes users.csv, warehouse.csv, stores.csv, products.csv, orders.csv,
+     * productUpdates.csv and productSupplyRequests.csv into a directory.
+     *
+     * @param dir the directory, created if missing
+     * @throws java.io.IOException when a file cannot be written
+     */
+    public void write(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Cannot create " + dir);
+        makeCities();
+        writeUsers(new File(dir, "users.csv"));
+        writeWarehouses(new File(dir, "warehouse.csv"));
+        writeStores(new File(dir, "stores.csv"));
+        writeProducts(new File(dir, "products.csv"));
+        writeOrders(new File(dir, "orders.csv"));
+        writeProductUpdates(new File(dir, "productUpdates.csv"));
+        writeSupplyRequests(new File(dir, "productSupplyRequests.csv"));
+    }// end write
+
+    // one random stream per table, so each table is the same whatever else changes
+    private Random random(int table) {
+        return new Random(this.seed * 1000003 + table);
+    }
+
+    // city centers and Zipf sizes; the number of cities grows as the square root of the stores
+    private void makeCities() {
+        Random random = random(0);
+        int count = Math.max(3, (int) Math.round(Math.sqrt(this.stores)));
+        this.cities = new double[count][];
+        for (int i = 0; i < count; i++) {
+            this.cities[i] = new double[] { 10 + 80 * random.nextDouble(), 10 + 80 * random.nextDouble() };
+        }
+        this.cityWeights = zipfWeights(count, this.zipf);
+    }// end makeCities
+
+    private void writeUsers(File file) throws IOException {
+        Random random = random(1);
+        this.userCity = new int[this.users + 1];
+        try (Writer out = open(file)) {
+            out.write("userID,name,password,latitude,longitude,type\n");
+            StringBuilder row = new StringBuilder();
+            for (int userID = 1; userID <= this.users; userID++) {
+                // the admin first, then the managers, then the customers
+                String type = userID == 1 ? "admin" : userID <= 1 + this.managers ? "manager" : "customer";
+                int city = sample(this.cityWeights, random);
+                this.userCity[userID] = city;
+                row.setLength(0);
+                row.append(userID).append(',')
+                        .append(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)]).append('.')
+                        .append(LAST_NAMES[random.nextInt(LAST_NAMES.length)]).append(userID).append(",xyz,");
+                coordinates(row, this.cities[city], random).append(',').append(type).append('\n');
+                out.write(row.toString());
+            }
+        }
+    }// end writeUsers
+
+    private void writeWarehouses(File file) throws IOException {
+        Random random = random(2);
+        try (Writer out = open(file)) {
+            out.write("wareHouseID,area,latitude,longitude\n");
+            StringBuilder row = new StringBuilder();
+            for (int warehouseID = 1; warehouseID <= this.warehouses; warehouseID++) {
+                row.setLength(0);
+                row.append(warehouseID).append(',').append(5000 + random.nextInt(20000)).append(',');
+                coordinates(row, this.cities[sample(this.cityWeights, random)], random).append('\n');
+                out.write(row.toString());
+            }
+        }
+    }// end writeWarehouses
+
+    private void writeStores(File file) throws IOException {
+        Random random = random(3);
+        int[] cityOf = new int[this.stores + 1];
+        int[] perCity = new int[this.cities.length];
+        this.storeManager = new int[this.stores + 1];
+        try (Writer out = open(file)) {
+            out.write("storeID,latitude,longitude,managerID,dateEstablished\n");
+            StringBuilder row = new StringBuilder();
+            for (int storeID = 1; storeID <= this.stores; storeID++) {
+                int city = sample(this.cityWeights, random);
+                int managerID = 2 + random.nextInt(this.managers);
+                cityOf[storeID] = city;
+                perCity[city]++;
+                this.storeManager[storeID] = managerID;
+
+                LocalDate established = LocalDate.of(1930, 1, 1).plusDays((long) (random.nextDouble() * 85 * 365.25));
+                row.setLength(0);
+                row.append(storeID).append(',');
+                coordinates(row, this.cities[city], random).append(',').append(managerID).append(',')
+                        .append(established).append('\n');
+                out.write(row.toString());
+            }
+        }
+
+        this.storesByCity = new int[this.cities.length][];
+        for (int city = 0; city < perCity.length; city++) {
+            this.storesByCity[city] = new int[perCity[city]];
+        }
+        Arrays.fill(perCity, 0);
+        for (int storeID = 1; storeID <= this.stores; storeID++) {
+            this.storesByCity[cityOf[storeID]][perCity[cityOf[storeID]]++] = storeID;
+        }
+    }// end writeStores
+
+    private void writeProducts(File file) throws IOException {
+        Random random = random(4);
+        try (Writer out = open(file)) {
+            out.write("storeID,productName,numberOfUnits,pricePerUnit\n");
+            StringBuilder row = new StringBuilder();
+            for (int storeID = 1; storeID <= this.stores; storeID++) {
+                for (int product = 0; product < this.productsPerStore; product++) {
+                    row.setLength(0);
+                    row.append(storeID).append(',').append(productName(product)).append(',')
+                            .append(10 + random.nextInt(91)).append(',').append(1 + random.nextInt(10))
+                            .append('\n');
+                    out.write(row.toString());
+                }
+            }
+        }
+    }// end writeProducts
+
+    // customers order Zipf-popular products from stores of their own city, in time order
+    private void writeOrders(File file) throws IOException {
+        Random random = random(5);
+        double[] productWeights = zipfWeights(this.productsPerStore, this.zipf);
+        int firstCustomer = 2 + this.managers;
+        int customers = this.users - firstCustomer + 1;
+        try (Writer out = open(file)) {
+            out.write("orderNumber,customerID,storeID,productName,unitsOrdered,orderTime\n");
+            StringBuilder row = new StringBuilder();
+            TimeFormat time = new TimeFormat();
+            for (long order = 1; order <= this.orders; order++) {
+                int customerID = customers > 0 ? firstCustomer + random.nextInt(customers) : 1;
+                int[] local = this.storesByCity[this.userCity[customerID]];
+                int storeID = local.length > 0 ? local[random.nextInt(local.length)] : 1 + random.nextInt(this.stores);
+                row.setLength(0);
+                row.append(order).append(',').append(customerID).append(',').append(storeID).append(',')
+                        .append(productName(sample(productWeights, random))).append(',')
+                        .append(1 + random.nextInt(50)).append(',');
+                time.append(row, timeOf(order, this.orders)).append('\n');
+                out.write(row.toString());
+            }
+        }
+    }// end writeOrders
+
+    private void writeProductUpdates(File file) throws IOException {
+        Random random = random(6);
+        double[] productWeights = zipfWeights(this.productsPerStore, this.zipf);
+        try (Writer out = open(file)) {
+            out.write("updateNumber,managerID,storeID,productName,updatedOn\n");
+            StringBuilder row = new StringBuilder();
+            TimeFormat time = new TimeFormat();
+            for (long update = 1; update <= this.productUpdates; update++) {
+                int storeID = 1 + random.nextInt(this.stores);
+                row.setLength(0);
+                row.append(update).append(',').append(this.storeManager[storeID]).append(',').append(storeID)
+                        .append(',').append(productName(sample(productWeights, random))).append(',');
+                time.append(row, timeOf(update, this.productUpdates)).append('\n');
+                out.write(row.toString());
+            }
+        }
+    }// end writeProductUpdates
+
+    private void writeSupplyRequests(File file) throws IOException {
+        Random random = random(7);
+        double[] productWeights = zipfWeights(this.productsPerStore, this.zipf);
+        try (Writer out = open(file)) {
+            out.write("requestNumber,managerID,warehouseID,storeID,productName,unitsRequested\n");
+            StringBuilder row = new StringBuilder();
+            for (long request = 1; request <= this.supplyRequests; request++) {
+                int storeID = 1 + random.nextInt(this.stores);
+                row.setLength(0);
+                row.append(request).append(',').append(this.storeManager[storeID]).append(',')
+                        .append(1 + random.nextInt(this.warehouses)).append(',').append(storeID).append(',')
+                        .append(productName(sample(productWeights, random))).append(',')
+                        .append(1 + random.nextInt(100)).append('\n');
+                out.write(row.toString());
+            }
+        }
+    }// end writeSupplyRequests
+
+    // the i-th of count events, evenly spread over the period so later events are never earlier
+    private long timeOf(long i, long count) {
+        return START_MILLIS + (long) ((double) (i - 1) / Math.max(1, count) * this.spanMillis);
+    }
+
+    static String productName(int rank) {
+        return rank < PRODUCT_NAMES.length ? PRODUCT_NAMES[rank] : "Product " + (rank + 1);
+    }
+
+    // a point normally spread around the center, inside the 0 to 100 space, with 5 decimals
+    private static StringBuilder coordinates(StringBuilder row, double[] center, Random random) {
+        for (int axis = 0; axis < 2; axis++) {
+            double value = center[axis] + random.nextGaussian() * CITY_SPREAD;
+            long fixed = Math.round(Math.min(99.99999, Math.max(0, value)) * 100000);
+            if (axis > 0)
+                row.append(',');
+            row.append(fixed / 100000).append('.');
+            String decimals = Long.toString(fixed % 100000);
+            for (int pad = decimals.length(); pad < 5; pad++) {
+                row.append('0');
+            }
+            row.append(decimals);
+        }
+        return row;
+    }// end coordinates
+
+    /**
+     * Returns the cumulative Zipf distribution over ranks 0 to n - 1: rank k
+     * is drawn with probability proportional to 1 / (k + 1)^exponent.
+     */
+    static double[] zipfWeights(int n, double exponent) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }// end zipfWeights
+
+    // draws a rank from a cumulative distribution
+    static int sample(double[] cumulative, Random random) {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        return Math.min(rank < 0 ? -rank - 1 : rank, cumulative.length - 1);
+    }
+
+    private static Writer open(File file) throws IOException {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8),
+                1 << 20);
+    }
+
+    /**
+     * Formats UTC milliseconds as yyyy-mm-dd hh:mm:ss, reusing the date part
+     * while the day stays the same, since the times are written in order.
+     */
+    private static class TimeFormat {
+        private long day = Long.MIN_VALUE;
+        private String date;
+
+        StringBuilder append(StringBuilder row, long millis) {
+            long day = Math.floorDiv(millis, DAY_MILLIS);
+            if (day != this.day) {
+                this.day = day;
+                this.date = LocalDate.ofEpochDay(day) + " ";
+            }
+            long seconds = Math.floorMod(millis, DAY_MILLIS) / 1000;
+            row.append(this.date);
+            two(row, seconds / 3600).append(':');
+            two(row, seconds / 60 % 60).append(':');
+            return two(row, seconds % 60);
+        }
+
+        private static StringBuilder two(StringBuilder row, long value) {
+            return row.append(value < 10 ? "0" : "").append(value);
+        }
+    }// end TimeFormat
+
+    /**
+     * Writes a dataset.
+     *
+     * @param args <output dir> [name=value ...]
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            DataGenerator.class.getName() +
+                            " <output dir> [scale=N] [seed=N] [products=N] [days=N] [zipf=s]");
+            return;
+        } // end if
+
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0) {
+                System.err.println("Options are given as name=value: " + args[i]);
+                return;
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+
+        try {
+            double scale = Double.parseDouble(option(options, "scale", "1"));
+            DataGenerator generator = new DataGenerator(scale, Long.parseLong(option(options, "seed", "1")),
+                    Integer.parseInt(option(options, "products", "10")),
+                    Integer.parseInt(option(options, "days", "365")),
+                    Double.parseDouble(option(options, "zipf", "1.0")));
+
+            long start = System.currentTimeMillis();
+            generator.write(new File(args[0]));
+            System.out.println("Wrote " + generator.users + " users, " + generator.warehouses + " warehouses, "
+                    + generator.stores + " stores, " + (long) generator.stores * generator.productsPerStore
+                    + " products, " + generator.orders + " orders, " + generator.productUpdates
+                    + " product updates and " + generator.supplyRequests + " supply requests to " + args[0]
+                    + " in " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        }
+    }// end main
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+}// end DataGenerator
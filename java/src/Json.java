@@ -0,0 +1,249 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class reads and writes the small JSON documents of the HTTP service.
+ * Requests are flat objects of strings, numbers, booleans and nulls; nested
+ * values are rejected. Responses are built in a StringBuilder, and a
+ * ResultTable is written as an array of objects with typed values.
+ *
+ */
+public final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Parses a flat JSON object.
+     *
+     * @param text the JSON text
+     * @return the members in document order: String, Double, Long, Boolean or null values
+     * @throws IllegalArgumentException when the text is not a flat JSON object
+     */
+    public static Map<String, Object> parseObject(String text) {
+        Parser parser = new Parser(text);
+        Map<String, Object> members = new LinkedHashMap<String, Object>();
+        parser.expect('{');
+        if (!parser.consume('}')) {
+            do {
+                String name = parser.string();
+                parser.expect(':');
+                members.put(name, parser.value());
+            } while (parser.consume(','));
+            parser.expect('}');
+        }
+        parser.end();
+        return members;
+    }// end parseObject
+
+    /**
+     * Appends a string as a JSON string literal.
+     *
+     * @param out   the buffer to append to
+     * @param value the string, or null
+     * @return the buffer
+     */
+    public static StringBuilder quote(StringBuilder out, String value) {
+        if (value == null)
+            return out.append("null");
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        out.append(String.format("\\u%04x", (int) c));
+                    else
+                        out.append(c);
+            }
+        }
+        return out.append('"');
+    }// end quote
+
+    /**
+     * Appends the rows of a table as an array of objects. Numbers are written
+     * as numbers, timestamps and text as strings with the padding of char
+     * columns trimmed.
+     *
+     * @param out    the buffer to append to
+     * @param table  the rows
+     * @param fields the member name for each column
+     * @return the buffer
+     */
+    public static StringBuilder table(StringBuilder out, ResultTable table, String... fields) {
+        out.append('[');
+        for (int row = 0; row < table.rowCount(); row++) {
+            if (row > 0)
+                out.append(',');
+            out.append('{');
+            for (int col = 0; col < fields.length; col++) {
+                if (col > 0)
+                    out.append(',');
+                quote(out, fields[col]).append(':');
+                if (table.isNull(row, col)) {
+                    out.append("null");
+                    continue;
+                }
+                switch (table.columnKind(col)) {
+                    case ResultTable.INT:
+                    case ResultTable.LONG:
+                        out.append(table.getLong(row, col));
+                        break;
+                    case ResultTable.DOUBLE:
+                        out.append(table.getDouble(row, col));
+                        break;
+                    default:
+                        quote(out, table.getString(row, col).trim());
+                }
+            }
+            out.append('}');
+        }
+        return out.append(']');
+    }// end table
+
+    // recursive descent over the subset of JSON requests use
+    private static class Parser {
+        private final String text;
+        private int pos = 0;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        void skipSpace() {
+            while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) {
+                this.pos++;
+            }
+        }
+
+        boolean consume(char c) {
+            skipSpace();
+            if (this.pos < this.text.length() && this.text.charAt(this.pos) == c) {
+                this.pos++;
+                return true;
+            }
+            return false;
+        }
+
+        void expect(char c) {
+            if (!consume(c))
+                throw error("Expected '" + c + "'");
+        }
+
+        void end() {
+            skipSpace();
+            if (this.pos != this.text.length())
+                throw error("Unexpected text after the object");
+        }
+
+        Object value() {
+            skipSpace();
+            if (this.pos >= this.text.length())
+                throw error("Expected a value");
+            char c = this.text.charAt(this.pos);
+            if (c == '"')
+                return string();
+            if (this.text.startsWith("true", this.pos)) {
+                this.pos += 4;
+                return Boolean.TRUE;
+            }
+            if (this.text.startsWith("false", this.pos)) {
+                this.pos += 5;
+                return Boolean.FALSE;
+            }
+            if (this.text.startsWith("null", this.pos)) {
+                this.pos += 4;
+                return null;
+            }
+            if (c == '-' || (c >= '0' && c <= '9'))
+                return number();
+            throw error("Only strings, numbers, booleans and null are accepted");
+        }// end value
+
+        Object number() {
+            int start = this.pos;
+            boolean integral = true;
+            while (this.pos < this.text.length() && "+-0123456789.eE".indexOf(this.text.charAt(this.pos)) >= 0) {
+                if (".eE".indexOf(this.text.charAt(this.pos)) >= 0)
+                    integral = false;
+                this.pos++;
+            }
+            String number = this.text.substring(start, this.pos);
+            try {
+                return integral ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+            } catch (NumberFormatException e) {
+                throw error("Bad number " + number);
+            }
+        }// end number
+
+        String string() {
+            skipSpace();
+            if (this.pos >= this.text.length() || this.text.charAt(this.pos) != '"')
+                throw error("Expected a string");
+            this.pos++;
+            StringBuilder out = new StringBuilder();
+            while (this.pos < this.text.length()) {
+                char c = this.text.charAt(this.pos++);
+                if (c == '"')
+                    return out.toString();
+                if (c != '\\') {
+                    out.append(c);
+                    continue;
+                }
+                if (this.pos >= this.text.length())
+                    break;
+                char escape = this.text.charAt(this.pos++);
+                switch (escape) {
+                    case 'n':
+                        out.append('\n');
+                        break;
+                    case 't':
+                        out.append('\t');
+                        break;
+                    case 'r':
+                        out.append('\r');
+                        break;
+                    case 'b':
+                        out.append('\b');
+                        break;
+                    case 'f':
+                        out.append('\f');
+                        break;
+                    case 'u':
+                        if (this.pos + 4 > this.text.length())
+                            throw error("Bad unicode escape");
+                        try {
+                            out.append((char) Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("Bad unicode escape");
+                        }
+                        this.pos += 4;
+                        break;
+                    default:
+                        out.append(escape);
+                }
+            }
+            throw error("Unterminated string");
+        }// end string
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at offset " + this.pos);
+        }
+    }// end Parser
+
+}// end Json
@@ -0,0 +1,119 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class counts latencies in log-linear buckets, so percentiles can be
+ * read at any time without keeping every sample. Values below 64ns get a
+ * bucket each; above that every power of two is split into 32 buckets, which
+ * keeps the reported value within about 3% of the true one up to the range
+ * of a long.
+ *
+ * Recording is lock free and may be done from any number of threads.
+ *
+ */
+public class LatencyHistogram {
+
+    private static final int LINEAR = 64;
+    private static final int SUB_BUCKETS = 32;
+    private static final int BUCKETS = LINEAR + (63 - 6) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos the latency in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        this.counts.incrementAndGet(bucket(nanos));
+        this.count.incrementAndGet();
+        this.total.addAndGet(nanos);
+        long seen = this.max.get();
+        while (nanos > seen && !this.max.compareAndSet(seen, nanos)) {
+            seen = this.max.get();
+        }
+    }// end record
+
+    /**
+     * Adds every latency recorded by another histogram to this one.
+     *
+     * @param other the histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int b = 0; b < BUCKETS; b++) {
+            long n = other.counts.get(b);
+            if (n != 0)
+                this.counts.addAndGet(b, n);
+        }
+        this.count.addAndGet(other.count.get());
+        this.total.addAndGet(other.total.get());
+        long otherMax = other.max.get();
+        long seen = this.max.get();
+        while (otherMax > seen && !this.max.compareAndSet(seen, otherMax)) {
+            seen = this.max.get();
+        }
+    }// end add
+
+    public long count() {
+        return this.count.get();
+    }
+
+    public long max() {
+        return this.max.get();
+    }
+
+    // mean latency in nanoseconds, 0 when empty
+    public double mean() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.total.get() / n;
+    }
+
+    /**
+     * Returns the latency at or below which the given share of the recorded
+     * latencies fall.
+     *
+     * @param percentile the share, from 0 to 100
+     * @return the upper bound of the bucket holding that latency, in
+     *         nanoseconds, capped at the largest recorded value; 0 when empty
+     */
+    public long percentile(double percentile) {
+        long n = this.count.get();
+        if (n == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += this.counts.get(b);
+            if (seen >= rank)
+                return Math.min(upperBound(b), this.max.get());
+        }
+        return this.max.get();
+    }// end percentile
+
+    // index of the bucket holding a value
+    static int bucket(long nanos) {
+        if (nanos < LINEAR)
+            return (int) nanos;
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int shift = exponent - 5;
+        int sub = (int) (nanos >>> shift);
+        return LINEAR + (exponent - 6) * SUB_BUCKETS + (sub - SUB_BUCKETS);
+    }// end bucket
+
+    // largest value that falls in a bucket
+    static long upperBound(int bucket) {
+        if (bucket < LINEAR)
+            return bucket;
+        int exponent = (bucket - LINEAR) / SUB_BUCKETS + 6;
+        int sub = (bucket - LINEAR) % SUB_BUCKETS + SUB_BUCKETS;
+        int shift = exponent - 5;
+        // wraps to Long.MAX_VALUE for the last bucket
+        return (((long) sub + 1) << shift) - 1;
+    }// end upperBound
+
+}// end LatencyHistogram
@@ -0,0 +1,548 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class puts the application under concurrent load. Customer and
+ * manager threads repeatedly pick an operation from a weighted mix and run it
+ * the way the menu does, with the same queries in the same order, then wait
+ * for a random think time. Users, stores, products and warehouses are taken
+ * from the data/*.csv files the database was loaded from.
+ *
+ * At the end it reports throughput and p50/p95/p99 latency per operation,
+ * the database time and statements behind them from QueryMetrics, and
+ * checks that the database is consistent with what the run did: no product
+ * has negative stock, the orders, product updates and supply requests in the
+ * database match the ones the run placed, and the popularity rollups match
+ * the Orders table. Runs against a database nobody else is writing to.
+ *
+ * Options are given as name=value:
+ *   customers  number of customer threads (default 8)
+ *   managers   number of manager threads (default 2)
+ *   seconds    length of the run (default 30)
+ *   think      mean think time between operations in ms (default 100)
+ *   seed       random seed (default 1)
+ *   mix        weights for some operations, e.g. placeOrder:50,viewStores:0
+ *
+ */
+public class LoadGenerator {
+
+    // operations, in the order of the menu
+    static final String[] OPERATIONS = {
+            "viewStores", "viewProducts", "placeOrder", "viewRecentOrders",
+            "updateProduct", "viewRecentUpdates", "viewPopularProducts", "viewPopularCustomers",
+            "placeSupplyRequest", "viewAllOrders" };
+    private static final int VIEW_STORES = 0;
+    private static final int VIEW_PRODUCTS = 1;
+    private static final int PLACE_ORDER = 2;
+    private static final int VIEW_RECENT_ORDERS = 3;
+    private static final int UPDATE_PRODUCT = 4;
+    private static final int VIEW_RECENT_UPDATES = 5;
+    private static final int VIEW_POPULAR_PRODUCTS = 6;
+    private static final int VIEW_POPULAR_CUSTOMERS = 7;
+    private static final int PLACE_SUPPLY_REQUEST = 8;
+    private static final int VIEW_ALL_ORDERS = 9;
+
+    // the first four are run by customers, the rest by managers
+    private static final int FIRST_MANAGER_OPERATION = UPDATE_PRODUCT;
+
+    private static final int[] DEFAULT_WEIGHTS = { 25, 30, 30, 15, 15, 20, 15, 15, 10, 25 };
+
+    private final Amazon esql;
+    private final int[] weights;
+    private final long thinkMillis;
+    private final long seed;
+
+    // data read from the csv files
+    private final List<Integer> customers = new ArrayList<Integer>();
+    private final List<Integer> managers = new ArrayList<Integer>();
+    private final Map<Integer, List<Integer>> storesByManager = new HashMap<Integer, List<Integer>>();
+    private final List<Integer> stores = new ArrayList<Integer>();
+    private final Map<Integer, List<String>> productsByStore = new HashMap<Integer, List<String>>();
+    private final List<Integer> warehouses = new ArrayList<Integer>();
+
+    // per operation results
+    private final LatencyHistogram[] latencies = new LatencyHistogram[OPERATIONS.length];
+    private final AtomicLong[] errors = new AtomicLong[OPERATIONS.length];
+    private final String[] firstErrors = new String[OPERATIONS.length];
+
+    // what the run changed, compared against the database afterwards
+    private final AtomicLong ordersPlaced = new AtomicLong();
+    private final AtomicLong unitsOrdered = new AtomicLong();
+    private final AtomicLong ordersRejected = new AtomicLong();
+    private final AtomicLong productUpdates = new AtomicLong();
+    private final AtomicLong supplyRequests = new AtomicLong();
+
+    /**
+     * Creates a load generator
+     *
+     * @param esql        the application, with a pool large enough for every thread
+     * @param dataDir     the directory holding users.csv, stores.csv, products.csv and warehouse.csv
+     * @param weights     the relative weight of each operation in OPERATIONS
+     * @param thinkMillis the mean pause between two operations of a thread
+     * @param seed        the random seed
+     * @throws java.io.IOException when a data file cannot be read
+     */
+    public LoadGenerator(Amazon esql, File dataDir, int[] weights, long thinkMillis, long seed) throws IOException {
+        this.esql = esql;
+        this.weights = weights;
+        this.thinkMillis = thinkMillis;
+        this.seed = seed;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            this.latencies[op] = new LatencyHistogram();
+            this.errors[op] = new AtomicLong();
+        }
+
+        for (String[] user : readCsv(new File(dataDir, "users.csv"))) {
+            if (user[5].trim().equals("customer"))
+                this.customers.add(Integer.parseInt(user[0].trim()));
+        }
+        for (String[] store : readCsv(new File(dataDir, "stores.csv"))) {
+            int storeID = Integer.parseInt(store[0].trim());
+            int managerID = Integer.parseInt(store[3].trim());
+            this.stores.add(storeID);
+            if (!this.storesByManager.containsKey(managerID)) {
+                this.storesByManager.put(managerID, new ArrayList<Integer>());
+                this.managers.add(managerID);
+            }
+            this.storesByManager.get(managerID).add(storeID);
+        }
+        for (String[] product : readCsv(new File(dataDir, "products.csv"))) {
+            int storeID = Integer.parseInt(product[0].trim());
+            if (!this.productsByStore.containsKey(storeID))
+                this.productsByStore.put(storeID, new ArrayList<String>());
+            this.productsByStore.get(storeID).add(product[1].trim());
+        }
+        for (String[] warehouse : readCsv(new File(dataDir, "warehouse.csv"))) {
+            this.warehouses.add(Integer.parseInt(warehouse[0].trim()));
+        }
+
+        if (this.customers.isEmpty() || this.managers.isEmpty() || this.warehouses.isEmpty())
+            throw new IOException("The data files need customers, stores and warehouses");
+    }// end LoadGenerator
+
+    // rows of a csv file without its header line
+    private static List<String[]> readCsv(File file) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().length() > 0)
+                    rows.add(line.split(",", -1));
+            }
+        } finally {
+            reader.close();
+        }
+        return rows;
+    }// end readCsv
+
+    /**
+     * Runs the customer and manager threads for the given time.
+     *
+     * @param customerThreads the number of simulated customers
+     * @param managerThreads  the number of simulated managers
+     * @param seconds         the length of the run
+     * @return the measured length of the run in nanoseconds
+     * @throws java.lang.InterruptedException when interrupted while waiting for the threads
+     */
+    public long run(int customerThreads, int managerThreads, int seconds) throws InterruptedException {
+        final long deadline = System.nanoTime() + seconds * 1000000000L;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < customerThreads + managerThreads; i++) {
+            final boolean manager = i >= customerThreads;
+            final Random random = new Random(this.seed * 31 + i);
+            threads.add(new Thread(new Runnable() {
+                public void run() {
+                    work(manager, random, deadline);
+                }
+            }, (manager ? "manager-" : "customer-") + i));
+        }
+
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }// end run
+
+    // one simulated user: pick an operation, time it, think, repeat
+    private void work(boolean manager, Random random, long deadline) {
+        int first = manager ? FIRST_MANAGER_OPERATION : 0;
+        int last = manager ? OPERATIONS.length : FIRST_MANAGER_OPERATION;
+        int totalWeight = 0;
+        for (int op = first; op < last; op++) {
+            totalWeight += this.weights[op];
+        }
+        if (totalWeight == 0)
+            return;
+
+        int customerID = this.customers.get(random.nextInt(this.customers.size()));
+        int managerID = this.managers.get(random.nextInt(this.managers.size()));
+
+        // log in once, as the menu does, and run every operation in that session
+        Session session;
+        try {
+            session = Session.load(this.esql, manager ? managerID : customerID);
+        } catch (SQLException e) {
+            System.err.println(Thread.currentThread().getName() + ": " + e.getMessage());
+            return;
+        }
+
+        while (System.nanoTime() < deadline) {
+            int pick = random.nextInt(totalWeight);
+            int op = first;
+            while (pick >= this.weights[op]) {
+                pick -= this.weights[op++];
+            }
+
+            long start = System.nanoTime();
+            QueryMetrics.Operation operation = this.esql.getMetrics().begin(OPERATIONS[op]);
+            try {
+                if (manager)
+                    runManagerOperation(op, session, random);
+                else
+                    runCustomerOperation(op, session, random);
+                this.latencies[op].record(System.nanoTime() - start);
+            } catch (Exception e) {
+                this.esql.getMetrics().operationFailed(e);
+                if (this.errors[op].getAndIncrement() == 0)
+                    this.firstErrors[op] = e.getMessage();
+            } finally {
+                operation.close();
+            }
+
+            if (this.thinkMillis > 0) {
+                try {
+                    Thread.sleep((long) (random.nextDouble() * 2 * this.thinkMillis));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        } // end while
+    }// end work
+
+    private void runCustomerOperation(int op, Session session, Random random) throws SQLException {
+        switch (op) {
+            case VIEW_STORES:
+                this.esql.getStoreIndex().within(session.getLatitude(), session.getLongitude(),
+                        Amazon.MAX_STORE_DISTANCE);
+                break;
+            case VIEW_PRODUCTS:
+                this.esql.getCatalogCache().products(randomStore(random));
+                break;
+            case PLACE_ORDER:
+                placeOrder(session, random);
+                break;
+            case VIEW_RECENT_ORDERS:
+                this.esql.getRecentActivity().recentOrders(session.getUserID());
+                break;
+            default:
+                throw new IllegalArgumentException(OPERATIONS[op]);
+        }
+    }// end runCustomerOperation
+
+    // the steps of the placeOrder menu, ordering from a store in range when there is one
+    private void placeOrder(Session session, Random random) throws SQLException {
+        double lat = session.getLatitude();
+        double lon = session.getLongitude();
+        SpatialIndex index = this.esql.getStoreIndex();
+        SpatialIndex.Result nearby = index.within(lat, lon, Amazon.MAX_STORE_DISTANCE);
+        int storeID = nearby.size > 0 ? nearby.ids[random.nextInt(nearby.size)] : randomStore(random);
+        if (index.distanceTo(storeID, lat, lon) > Amazon.MAX_STORE_DISTANCE) {
+            this.ordersRejected.incrementAndGet();
+            return;
+        }
+
+        String productName = randomProduct(storeID, random);
+        ResultTable products = this.esql.getCatalogCache().products(storeID);
+        int row = CatalogCache.find(products, productName);
+        if (row < 0 || products.getInt(row, 1) == 0) {
+            this.ordersRejected.incrementAndGet();
+            return;
+        }
+
+        int units = 1 + random.nextInt(Math.min(products.getInt(row, 1), 5));
+        if (this.esql.submitOrder(session.getUserID(), storeID, productName, units) > 0) {
+            this.ordersPlaced.incrementAndGet();
+            this.unitsOrdered.addAndGet(units);
+        } else {
+            this.ordersRejected.incrementAndGet();
+        }
+    }// end placeOrder
+
+    private void runManagerOperation(int op, Session session, Random random) throws SQLException {
+        int managerID = session.getUserID();
+        switch (op) {
+            case UPDATE_PRODUCT: {
+                int storeID = managedStore(session, random);
+                this.esql.getCatalogCache().products(storeID);
+                if (this.esql.submitProductUpdate(managerID, storeID, randomProduct(storeID, random),
+                        50 + random.nextInt(150), 1 + random.nextInt(10)))
+                    this.productUpdates.incrementAndGet();
+                break;
+            }
+            case VIEW_RECENT_UPDATES:
+                this.esql.getRecentActivity().recentUpdates(managerID);
+                break;
+            case VIEW_POPULAR_PRODUCTS:
+                this.esql.executeQueryAndStream(Amazon.POPULAR_PRODUCTS_SQL, rs -> rs.getString(1),
+                        managedStore(session, random));
+                break;
+            case VIEW_POPULAR_CUSTOMERS:
+                this.esql.executeQueryAndStream(Amazon.POPULAR_CUSTOMERS_SQL, rs -> rs.getString(2),
+                        managedStore(session, random));
+                break;
+            case PLACE_SUPPLY_REQUEST: {
+                List<Integer> own = this.storesByManager.get(managerID);
+                int storeID = own.get(random.nextInt(own.size()));
+                this.esql.getCatalogCache().products(storeID);
+                this.esql.submitSupplyRequest(managerID, this.warehouses.get(random.nextInt(this.warehouses.size())),
+                        storeID, randomProduct(storeID, random), 1 + random.nextInt(50));
+                this.supplyRequests.incrementAndGet();
+                break;
+            }
+            case VIEW_ALL_ORDERS: {
+                OrderBrowser browser = new OrderBrowser(this.esql, managerID, null, null, null,
+                        OrderBrowser.DEFAULT_PAGE_SIZE);
+                browser.first();
+                if (browser.hasNext())
+                    browser.next();
+                break;
+            }
+            default:
+                throw new IllegalArgumentException(OPERATIONS[op]);
+        }
+    }// end runManagerOperation
+
+    // the store list the manager menus show first, and one store picked from it
+    private static int managedStore(Session session, Random random) throws SQLException {
+        int[] managed = session.getManagedStores();
+        if (managed.length == 0)
+            throw new SQLException("Manager " + session.getUserID() + " has no stores");
+        return managed[random.nextInt(managed.length)];
+    }
+
+    private int randomStore(Random random) {
+        return this.stores.get(random.nextInt(this.stores.size()));
+    }
+
+    private String randomProduct(int storeID, Random random) {
+        List<String> products = this.productsByStore.get(storeID);
+        return products == null ? "" : products.get(random.nextInt(products.size()));
+    }
+
+    /**
+     * Prints the count, error count, throughput and latency percentiles of
+     * every operation that ran.
+     *
+     * @param elapsedNanos the length of the run
+     */
+    public void printReport(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%-22s %8s %7s %9s %9s %9s %9s %9s%n",
+                "operation", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            LatencyHistogram h = this.latencies[op];
+            long failed = this.errors[op].get();
+            if (h.count() == 0 && failed == 0)
+                continue;
+            printLine(OPERATIONS[op], h, failed, seconds);
+            all.add(h);
+            allErrors += failed;
+        }
+        printLine("all", all, allErrors, seconds);
+
+        System.out.println();
+        System.out.println(this.ordersPlaced.get() + " orders placed (" + this.unitsOrdered.get() + " units), "
+                + this.ordersRejected.get() + " not placed, " + this.productUpdates.get() + " product updates, "
+                + this.supplyRequests.get() + " supply requests");
+        System.out.println("Catalog cache: " + this.esql.getCatalogCache().getStats());
+        System.out.println();
+        System.out.println(this.esql.getMetrics().report());
+        for (int op = 0; op < OPERATIONS.length; op++) {
+            if (this.firstErrors[op] != null)
+                System.out.println("First " + OPERATIONS[op] + " error: " + this.firstErrors[op]);
+        }
+    }// end printReport
+
+    private static void printLine(String name, LatencyHistogram h, long failed, double seconds) {
+        System.out.printf("%-22s %8d %7d %9.1f %9.2f %9.2f %9.2f %9.2f%n", name, h.count(), failed,
+                h.count() / seconds, h.percentile(50) / 1e6, h.percentile(95) / 1e6, h.percentile(99) / 1e6,
+                h.max() / 1e6);
+    }
+
+    /**
+     * The row counts the invariants are checked against, taken before the run.
+     */
+    static class Snapshot {
+        final int lastOrderNumber;
+        final long productUpdates;
+        final long supplyRequests;
+
+        static final String SNAPSHOT_SQL =
+                "SELECT (SELECT coalesce(max(orderNumber), 0) FROM Orders), "
+                + "(SELECT count(*) FROM ProductUpdates), (SELECT count(*) FROM ProductSupplyRequests)";
+
+        Snapshot(Amazon esql) throws SQLException {
+            this(esql.executeQueryAndReturnTable(SNAPSHOT_SQL));
+        }
+
+        Snapshot(ResultTable row) {
+            this.lastOrderNumber = row.getInt(0, 0);
+            this.productUpdates = row.getLong(0, 1);
+            this.supplyRequests = row.getLong(0, 2);
+        }
+    }// end Snapshot
+
+    /**
+     * Checks the database against what the run did.
+     *
+     * @param before the row counts taken before the run
+     * @return the number of invariants that do not hold
+     * @throws java.sql.SQLException when failed to execute a query
+     */
+    public int checkInvariants(Snapshot before) throws SQLException {
+        int failures = 0;
+
+        // the checks are independent, so their queries run at once
+        AsyncQueryExecutor async = this.esql.getAsync();
+        CompletableFuture<ResultTable> negative = async.queryTable(
+                "SELECT count(*) FROM Product WHERE numberOfUnits < 0");
+        CompletableFuture<ResultTable> orders = async.queryTable(
+                "SELECT count(*), coalesce(sum(unitsOrdered), 0) FROM Orders WHERE orderNumber > ?",
+                before.lastOrderNumber);
+        CompletableFuture<ResultTable> snapshot = async.queryTable(Snapshot.SNAPSHOT_SQL);
+        CompletableFuture<ResultTable> sales = async.queryTable(
+                "SELECT count(*) FROM (SELECT storeID, productName, sum(unitsOrdered) AS units FROM Orders "
+                + "GROUP BY storeID, productName) o FULL JOIN StoreProductSales s USING (storeID, productName) "
+                + "WHERE coalesce(o.units, 0) <> coalesce(s.totalUnits, 0)");
+        CompletableFuture<ResultTable> customers = async.queryTable(
+                "SELECT count(*) FROM (SELECT storeID, customerID, count(*) AS n FROM Orders "
+                + "GROUP BY storeID, customerID) o FULL JOIN StoreCustomerOrders c USING (storeID, customerID) "
+                + "WHERE coalesce(o.n, 0) <> coalesce(c.orderCount, 0)");
+
+        failures += check("no product has negative stock", AsyncQueryExecutor.await(negative).getLong(0, 0), 0);
+
+        ResultTable placed = AsyncQueryExecutor.await(orders);
+        failures += check("orders in the database match orders placed", placed.getLong(0, 0), this.ordersPlaced.get());
+        failures += check("units in the database match units ordered", placed.getLong(0, 1), this.unitsOrdered.get());
+
+        Snapshot after = new Snapshot(AsyncQueryExecutor.await(snapshot));
+        failures += check("product updates recorded", after.productUpdates - before.productUpdates,
+                this.productUpdates.get());
+        failures += check("supply requests recorded", after.supplyRequests - before.supplyRequests,
+                this.supplyRequests.get());
+
+        failures += check("StoreProductSales matches Orders", AsyncQueryExecutor.await(sales).getLong(0, 0), 0);
+        failures += check("StoreCustomerOrders matches Orders", AsyncQueryExecutor.await(customers).getLong(0, 0), 0);
+        return failures;
+    }// end checkInvariants
+
+    private static int check(String invariant, long actual, long expected) {
+        if (actual == expected) {
+            System.out.println("OK     " + invariant);
+            return 0;
+        }
+        System.out.println("FAILED " + invariant + ": expected " + expected + ", found " + actual);
+        return 1;
+    }
+
+    // the default weights with the ones given as name:weight,... replaced
+    static int[] parseMix(String mix) {
+        int[] weights = DEFAULT_WEIGHTS.clone();
+        if (mix == null || mix.length() == 0)
+            return weights;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.split(":");
+            int op = -1;
+            for (int i = 0; i < OPERATIONS.length; i++) {
+                if (OPERATIONS[i].equalsIgnoreCase(parts[0].trim()))
+                    op = i;
+            }
+            if (op < 0 || parts.length != 2)
+                throw new IllegalArgumentException("Unknown mix entry: " + entry);
+            weights[op] = Integer.parseInt(parts[1].trim());
+        }
+        return weights;
+    }// end parseMix
+
+    /**
+     * Runs a load test and prints the report.
+     *
+     * @param args <dbname> <port> <user> <data dir> [name=value ...]
+     */
+    public static void main(String[] args) {
+        if (args.length < 4) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            LoadGenerator.class.getName() +
+                            " <dbname> <port> <user> <data dir> [customers=N] [managers=N] [seconds=N]"
+                            + " [think=ms] [seed=N] [mix=operation:weight,...]");
+            return;
+        } // end if
+
+        Map<String, String> options = new HashMap<String, String>();
+        for (int i = 4; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0) {
+                System.err.println("Options are given as name=value: " + args[i]);
+                return;
+            }
+            options.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+        }
+        int customerThreads = Integer.parseInt(option(options, "customers", "8"));
+        int managerThreads = Integer.parseInt(option(options, "managers", "2"));
+        int seconds = Integer.parseInt(option(options, "seconds", "30"));
+        long think = Long.parseLong(option(options, "think", "100"));
+        long seed = Long.parseLong(option(options, "seed", "1"));
+
+        Amazon esql = null;
+        int failures = 0;
+        try {
+            Class.forName("org.postgresql.Driver");
+            esql = new Amazon(args[0], args[1], args[2], "", customerThreads + managerThreads);
+            LoadGenerator generator = new LoadGenerator(esql, new File(args[3]),
+                    parseMix(options.get("mix")), think, seed);
+
+            Snapshot before = new Snapshot(esql);
+            System.out.println("Running " + customerThreads + " customers and " + managerThreads
+                    + " managers for " + seconds + "s\n");
+            long elapsed = generator.run(customerThreads, managerThreads, seconds);
+
+            generator.printReport(elapsed);
+            System.out.println();
+            failures = generator.checkInvariants(before);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            failures = 1;
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+        if (failures > 0)
+            System.exit(1);
+    }// end main
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+}// end LoadGenerator
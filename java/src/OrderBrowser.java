@@ -0,0 +1,237 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class pages through the orders of a manager's stores, newest first,
+ * using keyset pagination on (orderTime, orderNumber). Each page continues
+ * from the key of the last row shown instead of skipping rows with OFFSET, and
+ * reads at most one page of rows per store from the
+ * (storeID, orderTime, orderNumber) index, so a page costs the same however
+ * deep the manager has scrolled.
+ *
+ * Orders can be narrowed to one store and to a time range.
+ *
+ */
+public class OrderBrowser {
+
+    public static final int DEFAULT_PAGE_SIZE = 10;
+
+    // every page query reads up to a page of rows from each store
+    public static final int MAX_PAGE_SIZE = 1000;
+
+    private final Amazon esql;
+    private final int managerID;
+    private final Integer storeID;
+    private final Timestamp from;
+    private final Timestamp to;
+    private final int pageSize;
+
+    // keys of the first and last row of the current page
+    private Timestamp firstTime, lastTime;
+    private int firstNumber, lastNumber;
+
+    private ResultTable page = null;
+    private boolean hasNext = false;
+    private boolean hasPrevious = false;
+
+    /**
+     * Creates a browser positioned before the newest order
+     *
+     * @param esql      the application whose connection pool is used
+     * @param managerID the user ID of the manager
+     * @param storeID   only show this store, or null for all of the manager's stores
+     * @param from      only show orders at or after this time, or null
+     * @param to        only show orders before this time, or null
+     * @param pageSize  the number of orders per page, from 1 to MAX_PAGE_SIZE
+     * @throws IllegalArgumentException when the page size is out of range
+     */
+    public OrderBrowser(Amazon esql, int managerID, Integer storeID, Timestamp from, Timestamp to, int pageSize) {
+        if (pageSize < 1 || pageSize > MAX_PAGE_SIZE)
+            throw new IllegalArgumentException("Page size must be from 1 to " + MAX_PAGE_SIZE);
+        this.esql = esql;
+        this.managerID = managerID;
+        this.storeID = storeID;
+        this.from = from;
+        this.to = to;
+        this.pageSize = pageSize;
+    }// end OrderBrowser
+
+    /**
+     * Loads the newest page.
+     *
+     * @return rows of (orderNumber, name, storeID, productName, unitsOrdered, orderTime)
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable first() throws SQLException {
+        ResultTable rows = fetch(null, 0, false);
+        this.hasNext = rows.rowCount() > this.pageSize;
+        this.hasPrevious = false;
+        return show(rows);
+    }// end first
+
+    /**
+     * Loads the page after the current one. Stays on the current page if it
+     * is the last.
+     *
+     * @return the rows of the next page
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable next() throws SQLException {
+        if (this.page == null)
+            return first();
+        if (!this.hasNext)
+            return this.page;
+        ResultTable rows = fetch(this.lastTime, this.lastNumber, false);
+        this.hasNext = rows.rowCount() > this.pageSize;
+        this.hasPrevious = true;
+        return show(rows);
+    }// end next
+
+    /**
+     * Loads the page before the current one. Stays on the current page if it
+     * is the first.
+     *
+     * @return the rows of the previous page
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable previous() throws SQLException {
+        if (this.page == null)
+            return first();
+        if (!this.hasPrevious)
+            return this.page;
+        ResultTable rows = fetch(this.firstTime, this.firstNumber, true);
+        this.hasPrevious = rows.rowCount() > this.pageSize;
+        this.hasNext = true;
+        // read oldest first, shown newest first
+        rows.truncate(this.pageSize);
+        rows.reverseRows();
+        this.page = rows;
+        remember(rows);
+        return rows;
+    }// end previous
+
+    public boolean hasNext() {
+        return this.hasNext;
+    }
+
+    public boolean hasPrevious() {
+        return this.hasPrevious;
+    }
+
+    private ResultTable show(ResultTable rows) {
+        rows.truncate(this.pageSize);
+        this.page = rows;
+        remember(rows);
+        return rows;
+    }
+
+    private void remember(ResultTable rows) {
+        if (rows.rowCount() == 0)
+            return;
+        int last = rows.rowCount() - 1;
+        this.firstNumber = rows.getInt(0, 0);
+        this.firstTime = rows.getTimestamp(0, 5);
+        this.lastNumber = rows.getInt(last, 0);
+        this.lastTime = rows.getTimestamp(last, 5);
+    }
+
+    /**
+     * Reads one page plus one row, to tell whether another page follows.
+     * With backward set, reads the rows newer than the key, oldest first;
+     * otherwise the rows older than the key, newest first.
+     */
+    private ResultTable fetch(Timestamp keyTime, int keyNumber, boolean backward) throws SQLException {
+        List<Object> params = new ArrayList<Object>();
+        if (keyTime != null) {
+            // as text, since the bundled driver binds a Timestamp to hundredths of a second and
+            // the key has to match the stored microseconds exactly
+            params.add(keyTime.toString());
+            params.add(keyNumber);
+        }
+        if (this.from != null)
+            params.add(this.from);
+        if (this.to != null)
+            params.add(this.to);
+        params.add(this.pageSize + 1);
+        params.add(this.managerID);
+        if (this.storeID != null)
+            params.add(this.storeID);
+        params.add(this.pageSize + 1);
+
+        String sql = pageSql(keyTime != null, backward, this.from != null, this.to != null, this.storeID != null);
+        return this.esql.executeQueryAndReturnTable(sql, params.toArray());
+    }// end fetch
+
+    /**
+     * Streams every order matching the filters into a report, newest first,
+     * through a cursor so memory use does not grow with the number of rows.
+     *
+     * @param report the report receiving the rows
+     * @return the number of orders written
+     * @throws java.sql.SQLException when failed to execute the query or to write a row
+     */
+    public int export(ReportWriter report) throws SQLException {
+        List<Object> params = new ArrayList<Object>();
+        params.add(this.managerID);
+        if (this.storeID != null)
+            params.add(this.storeID);
+        if (this.from != null)
+            params.add(this.from);
+        if (this.to != null)
+            params.add(this.to);
+
+        String sql = exportSql(this.from != null, this.to != null, this.storeID != null);
+        return this.esql.executeQueryAndStream(sql, report, params.toArray());
+    }// end export
+
+    /**
+     * Builds the page query for a combination of filters. The placeholders
+     * are, in order: the key time, as text, and number if keyed, the from and to times
+     * if set, the per-store limit, the manager ID, the store ID if set and the
+     * overall limit.
+     */
+    static String pageSql(boolean keyed, boolean backward, boolean from, boolean to, boolean store) {
+        String direction = backward ? "ASC" : "DESC";
+
+        // one page per store through the index, then one page overall
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.orderNumber, u.name, o.storeID, o.productName, o.unitsOrdered, o.orderTime "
+                + "FROM Store s CROSS JOIN LATERAL (SELECT * FROM Orders i WHERE i.storeID = s.storeID");
+        if (keyed)
+            sql.append(backward ? " AND (i.orderTime, i.orderNumber) > (?::timestamp, ?)"
+                    : " AND (i.orderTime, i.orderNumber) < (?::timestamp, ?)");
+        if (from)
+            sql.append(" AND i.orderTime >= ?");
+        if (to)
+            sql.append(" AND i.orderTime < ?");
+        sql.append(" ORDER BY i.orderTime ").append(direction).append(", i.orderNumber ").append(direction)
+                .append(" LIMIT ?) o JOIN Users u ON u.userID = o.customerID WHERE s.managerID = ?");
+        if (store)
+            sql.append(" AND s.storeID = ?");
+        sql.append(" ORDER BY o.orderTime ").append(direction).append(", o.orderNumber ").append(direction)
+                .append(" LIMIT ?");
+        return sql.toString();
+    }// end pageSql
+
+    /**
+     * Builds the unpaged query export streams. The placeholders are, in
+     * order: the manager ID, the store ID if set and the from and to times if
+     * set.
+     */
+    static String exportSql(boolean from, boolean to, boolean store) {
+        StringBuilder sql = new StringBuilder(
+                "SELECT o.orderNumber, u.name, o.storeID, o.productName, o.unitsOrdered, o.orderTime "
+                + "FROM Store s JOIN Orders o ON o.storeID = s.storeID JOIN Users u ON u.userID = o.customerID "
+                + "WHERE s.managerID = ?");
+        if (store)
+            sql.append(" AND s.storeID = ?");
+        if (from)
+            sql.append(" AND o.orderTime >= ?");
+        if (to)
+            sql.append(" AND o.orderTime < ?");
+        return sql.append(" ORDER BY o.orderTime DESC, o.orderNumber DESC").toString();
+    }// end exportSql
+
+}// end OrderBrowser
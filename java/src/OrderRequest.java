@@ -0,0 +1,30 @@
+import java.sql.Timestamp;
+
+/**
+ * This class defines one order to be placed: who is ordering, from which
+ * store, which product and how many units.
+ *
+ */
+public class OrderRequest {
+
+    public final int customerID;
+    public final int storeID;
+    public final String productName;
+    public final int units;
+
+    // when the order was made, or null to use the time it is ingested
+    public final Timestamp orderTime;
+
+    public OrderRequest(int customerID, int storeID, String productName, int units, Timestamp orderTime) {
+        this.customerID = customerID;
+        this.storeID = storeID;
+        this.productName = productName;
+        this.units = units;
+        this.orderTime = orderTime;
+    }
+
+    public String toString() {
+        return customerID + "," + storeID + "," + productName + "," + units + "," + orderTime;
+    }
+
+}// end OrderRequest
@@ -0,0 +1,117 @@
+import java.sql.Date;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps the monthly partitions of Orders and ProductUpdates in
+ * place. ensure creates the partitions of the coming months ahead of time,
+ * so new rows never pile up in the default partitions, and moves any rows
+ * that did into partitions of their own. archive detaches the partitions of
+ * old months, which leaves them as plain tables to dump and drop while
+ * queries on Orders and ProductUpdates stop reading them.
+ *
+ * The work is done by partition_maintenance and archive_partitions (see
+ * create_functions.sql); the AmazonServer calls ensure daily.
+ *
+ */
+public class PartitionMaintenance {
+
+    public static final int DEFAULT_MONTHS_AHEAD = 3;
+
+    static final String MAINTENANCE_SQL = "SELECT partition_maintenance(?)";
+    static final String ARCHIVE_SQL = "SELECT archive_partitions(?, ?)";
+
+    // the partitioned tables archive accepts
+    static final String[] TABLES = { "Orders", "ProductUpdates" };
+
+    private final Amazon esql;
+
+    public PartitionMaintenance(Amazon esql) {
+        this.esql = esql;
+    }
+
+    /**
+     * Creates the partitions of the current month and the months ahead, and
+     * of every month with rows in a default partition.
+     *
+     * @param monthsAhead the number of months after the current one to create
+     * @return the number of partitions created
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public int ensure(int monthsAhead) throws SQLException {
+        return this.esql.executeQueryAndReturnTable(MAINTENANCE_SQL, monthsAhead).getInt(0, 0);
+    }// end ensure
+
+    /**
+     * Detaches the partitions of a table holding only months before a date.
+     * The rollups keep counting the archived orders.
+     *
+     * @param table  Orders or ProductUpdates
+     * @param before the first day that must stay attached
+     * @return the names of the detached partitions
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public List<String> archive(String table, Date before) throws SQLException {
+        ResultTable detached = this.esql.executeQueryAndReturnTable(ARCHIVE_SQL, table, before);
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i < detached.rowCount(); i++) {
+            names.add(detached.getString(i, 0));
+        }
+        return names;
+    }// end archive
+
+    /**
+     * Creates the partitions of the coming months and optionally archives
+     * the old ones of both tables.
+     *
+     * @param args <dbname> <port> <user> [ahead=N] [archive=yyyy-mm-dd]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            PartitionMaintenance.class.getName() +
+                            " <dbname> <port> <user> [ahead=N] [archive=yyyy-mm-dd]");
+            return;
+        } // end if
+
+        int ahead = DEFAULT_MONTHS_AHEAD;
+        Date before = null;
+        for (int i = 3; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            String value = option.length == 2 ? option[1] : "";
+            if (option[0].equals("ahead"))
+                ahead = Integer.parseInt(value);
+            else if (option[0].equals("archive"))
+                before = Date.valueOf(value);
+            else {
+                System.err.println("Unknown option " + args[i]);
+                return;
+            }
+        }
+
+        Amazon esql = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            esql = new Amazon(args[0], args[1], args[2], "");
+            PartitionMaintenance maintenance = new PartitionMaintenance(esql);
+
+            System.out.println("Created " + maintenance.ensure(ahead) + " partitions");
+            if (before != null) {
+                for (String table : TABLES) {
+                    for (String name : maintenance.archive(table, before)) {
+                        System.out.println("Detached " + name);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }// end main
+
+}// end PartitionMaintenance
@@ -0,0 +1,264 @@
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is a plan regression check for the queries the application
+ * issues. It runs EXPLAIN on each query with sample values taken from the
+ * database and fails if a plan contains a node the query should never need,
+ * such as a sequential scan of a large table or a sort the index should have
+ * made unnecessary.
+ *
+ * Each query is checked in the form a driver that prepares on the server
+ * sends it once it is reused: with string parameters typed text, and planned
+ * generically for any value. A plan that only uses an index when the values
+ * are inlined fails.
+ *
+ * By default sequential scans, bitmap scans and sorts are disabled for the
+ * session, so a seq scan or sort left in a plan means no index can serve the
+ * query, and the check works on the small bundled dataset. With --natural the
+ * planner runs with its normal settings; only use it against a scaled
+ * dataset, since on a few hundred rows a seq scan really is cheapest.
+ *
+ * Exits with status 1 if any check fails.
+ *
+ */
+public class PlanCheck {
+
+    // one query, its sample values and the plan nodes it must not use
+    private static class Check {
+        final String name;
+        final String sql;
+        final Object[] params;
+        final String[] forbidden;
+
+        Check(String name, String sql, Object[] params, String... forbidden) {
+            this.name = name;
+            this.sql = sql;
+            this.params = params;
+            this.forbidden = forbidden;
+        }
+    }// end Check
+
+    /**
+     * Runs every check.
+     *
+     * @param args <dbname> <port> <user> [--natural]
+     */
+    public static void main(String[] args) {
+        if (args.length != 3 && !(args.length == 4 && args[3].equals("--natural"))) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            PlanCheck.class.getName() +
+                            " <dbname> <port> <user> [--natural]");
+            System.exit(2);
+        } // end if
+
+        int failures = 0;
+        Connection connection = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+            connection = DriverManager.getConnection(url, args[2], "");
+
+            Statement stmt = connection.createStatement();
+            try {
+                // the plan a prepared statement settles on after its first executions
+                stmt.execute("SET plan_cache_mode = force_generic_plan");
+            } catch (SQLException e) {
+                // before PostgreSQL 12 the server picks the plan itself
+            }
+            if (args.length == 3) {
+                stmt.execute("SET enable_seqscan = off");
+                stmt.execute("SET enable_bitmapscan = off");
+                stmt.execute("SET enable_sort = off");
+            }
+            stmt.close();
+
+            for (Check check : checks(connection)) {
+                List<String> plan = explain(connection, check);
+                String violation = null;
+                for (String line : plan) {
+                    // a Merge Append of ordered partitions lists its sort key, but sorts nothing
+                    if (line.trim().startsWith("Sort Key:"))
+                        continue;
+                    for (String node : check.forbidden) {
+                        if (violation == null && line.toLowerCase().contains(node.toLowerCase()))
+                            violation = node;
+                    }
+                }
+
+                if (violation == null) {
+                    System.out.println("PASS " + check.name);
+                } else {
+                    failures++;
+                    System.out.println("FAIL " + check.name + ": plan uses " + violation);
+                    for (String line : plan) {
+                        System.out.println("    " + line);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } finally {
+            try {
+                if (connection != null)
+                    connection.close();
+            } catch (SQLException e) {
+                // ignored.
+            }
+        }
+
+        System.out.println(failures == 0 ? "All plans OK" : failures + " plan check(s) failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }// end main
+
+    // the application's queries with sample values read from the database
+    private static List<Check> checks(Connection connection) throws SQLException {
+        int managerID = sample(connection, "SELECT managerID FROM Store ORDER BY storeID LIMIT 1");
+        int storeID = sample(connection, "SELECT storeID FROM Store ORDER BY storeID LIMIT 1");
+        int customerID = sample(connection, "SELECT customerID FROM Orders ORDER BY orderNumber LIMIT 1");
+        Timestamp time = new Timestamp(System.currentTimeMillis());
+        Timestamp cutoff = RecentActivity.cutoff();
+        int limit = RecentActivity.DEFAULT_LIMIT;
+        int page = OrderBrowser.DEFAULT_PAGE_SIZE + 1;
+        // the middle of the 0 to 100 coordinate space of the data
+        double lat = 50.0, lon = 50.0;
+
+        List<Check> checks = new ArrayList<Check>();
+        checks.add(new Check("LogIn", Amazon.LOGIN_SQL,
+                new Object[] { "Amy", "xyz" }, "Seq Scan on users", "Seq Scan on store"));
+        checks.add(new Check("session", Amazon.SESSION_SQL,
+                new Object[] { managerID }, "Seq Scan on users", "Seq Scan on store"));
+        checks.add(new Check("store products", Amazon.STORE_PRODUCTS_SQL,
+                new Object[] { storeID }, "Seq Scan on product"));
+        checks.add(new Check("product stock", Amazon.PRODUCT_STOCK_SQL,
+                new Object[] { storeID, "Pepsi" }, "Seq Scan on product"));
+        checks.add(new Check("popular products", Amazon.POPULAR_PRODUCTS_SQL,
+                new Object[] { storeID }, "Seq Scan", "Sort"));
+        checks.add(new Check("popular customers", Amazon.POPULAR_CUSTOMERS_SQL,
+                new Object[] { storeID }, "Seq Scan", "Sort"));
+        checks.add(new Check("product search", ProductSearch.NEAREST_IN_STOCK_SQL,
+                new Object[] { lat, lon, "Pepsi", lat, lon, ProductSearch.DEFAULT_LIMIT }, "Seq Scan"));
+        checks.add(new Check("recent orders", RecentActivity.RECENT_ORDERS_SQL,
+                new Object[] { customerID, cutoff, limit }, "Seq Scan", "Sort"));
+        checks.add(new Check("recent orders, any time", RecentActivity.RECENT_ORDERS_ANY_TIME_SQL,
+                new Object[] { customerID, limit }, "Seq Scan", "Sort"));
+        // the outer top-K over at most K rows per store is an expected sort
+        checks.add(new Check("recent updates", RecentActivity.RECENT_UPDATES_SQL,
+                new Object[] { cutoff, limit, managerID, limit }, "Seq Scan"));
+        checks.add(new Check("recent updates, any time", RecentActivity.RECENT_UPDATES_ANY_TIME_SQL,
+                new Object[] { limit, managerID, limit }, "Seq Scan"));
+        checks.add(new Check("order page", OrderBrowser.pageSql(false, false, false, false, false),
+                new Object[] { page, managerID, page }, "Seq Scan"));
+        checks.add(new Check("order page, keyed", OrderBrowser.pageSql(true, false, false, false, false),
+                new Object[] { time.toString(), 0, page, managerID, page }, "Seq Scan"));
+        checks.add(new Check("order page, previous", OrderBrowser.pageSql(true, true, false, false, false),
+                new Object[] { time.toString(), 0, page, managerID, page }, "Seq Scan"));
+        checks.add(new Check("order page, filtered", OrderBrowser.pageSql(true, false, true, true, true),
+                new Object[] { time.toString(), 0, new Timestamp(0), time, page, managerID, storeID, page }, "Seq Scan"));
+        // the export is ordered across stores, so only its scans are checked
+        checks.add(new Check("order export", OrderBrowser.exportSql(false, false, false),
+                new Object[] { managerID }, "Seq Scan"));
+        checks.add(new Check("order export, filtered", OrderBrowser.exportSql(true, true, true),
+                new Object[] { managerID, storeID, new Timestamp(0), time }, "Seq Scan"));
+        // every product is read when restocking every store, in primary key order
+        checks.add(new Check("low stock", ReplenishmentPlanner.lowStockSql(null, true),
+                new Object[] { ReplenishmentPlanner.DEFAULT_THRESHOLD }, "Sort"));
+        // the manager's stores are few, and each one's products may be sorted in turn
+        checks.add(new Check("low stock, one manager", ReplenishmentPlanner.lowStockSql(managerID, true),
+                new Object[] { ReplenishmentPlanner.DEFAULT_THRESHOLD, managerID }, "Seq Scan"));
+        // the few warehouses are all compared, the store is looked up
+        checks.add(new Check("nearest warehouse", ReplenishmentPlanner.NEAREST_WAREHOUSE_SQL,
+                new Object[] { storeID }, "Seq Scan on store"));
+        return checks;
+    }// end checks
+
+    private static int sample(Connection connection, String sql) throws SQLException {
+        Statement stmt = connection.createStatement();
+        try {
+            ResultSet rs = stmt.executeQuery(sql);
+            if (!rs.next())
+                throw new SQLException("No sample data for: " + sql);
+            return rs.getInt(1);
+        } finally {
+            stmt.close();
+        }
+    }
+
+    // returns the lines of the generic plan of the query prepared on the server
+    private static List<String> explain(Connection connection, Check check) throws SQLException {
+        StringBuilder sql = new StringBuilder();
+        int placeholders = 0;
+        boolean quoted = false;
+        for (char c : check.sql.toCharArray()) {
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                sql.append('$').append(++placeholders);
+            else
+                sql.append(c);
+        }
+        if (placeholders != check.params.length)
+            throw new SQLException(check.name + ": " + check.params.length + " values for " + placeholders + " placeholders");
+
+        StringBuilder types = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < check.params.length; i++) {
+            types.append(i > 0 ? ", " : "").append(typeOf(check.params[i]));
+            values.append(i > 0 ? ", " : "").append(literal(check.params[i]));
+        }
+
+        List<String> plan = new ArrayList<String>();
+        Statement stmt = connection.createStatement();
+        try {
+            stmt.execute("PREPARE plan_check" + (types.length() == 0 ? "" : " (" + types + ")") + " AS " + sql);
+            try {
+                ResultSet rs = stmt.executeQuery(
+                        "EXPLAIN EXECUTE plan_check" + (values.length() == 0 ? "" : "(" + values + ")"));
+                while (rs.next()) {
+                    plan.add(rs.getString(1));
+                }
+            } finally {
+                stmt.execute("DEALLOCATE plan_check");
+            }
+        } finally {
+            stmt.close();
+        }
+        return plan;
+    }// end explain
+
+    // the type the bundled driver prepares a value as
+    private static String typeOf(Object value) {
+        if (value instanceof Integer)
+            return "integer";
+        if (value instanceof Long)
+            return "bigint";
+        if (value instanceof Double)
+            return "double precision";
+        if (value instanceof BigDecimal)
+            return "numeric";
+        if (value instanceof Timestamp)
+            return "timestamp";
+        if (value instanceof java.sql.Date)
+            return "date";
+        if (value instanceof String)
+            return "text";
+        throw new IllegalArgumentException("No parameter type for " + value.getClass().getName());
+    }// end typeOf
+
+    private static String literal(Object value) {
+        if (value instanceof Number)
+            return value.toString();
+        return "'" + value.toString().replace("'", "''") + "'";
+    }
+
+}// end PlanCheck
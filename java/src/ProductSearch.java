@@ -0,0 +1,63 @@
+import java.sql.SQLException;
+
+/**
+ * This class answers "where can I buy this nearby": the stores closest to a
+ * location that have a product in stock, with its price, in one query.
+ *
+ * The query walks the stores nearest first through a GiST index on their
+ * coordinates and stops at the Kth store with the product in stock, so a
+ * product most stores carry costs a handful of index probes. For a product
+ * few stores carry the database starts from a partial index on the in-stock
+ * rows of Product instead and sorts just those stores by distance.
+ * Distances are euclidean, as in Amazon.calculateDistance.
+ *
+ */
+public class ProductSearch {
+
+    public static final int DEFAULT_LIMIT = 5;
+
+    // the distance expression must match Store_location_idx for the index to order the stores,
+    // and the name is compared as char for Product_productName_inStock_idx to apply
+    static final String NEAREST_IN_STOCK_SQL =
+            "SELECT s.storeID, p.numberOfUnits, p.pricePerUnit, point(s.latitude, s.longitude) <-> point(?, ?) "
+            + "FROM Store s JOIN Product p ON p.storeID = s.storeID "
+            + "WHERE p.productName = ?::bpchar AND p.numberOfUnits > 0 "
+            + "ORDER BY point(s.latitude, s.longitude) <-> point(?, ?) LIMIT ?";
+
+    private final Amazon esql;
+    private final int limit;
+
+    public ProductSearch(Amazon esql) {
+        this(esql, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Creates a product search
+     *
+     * @param esql  the application whose connection pool is used
+     * @param limit the number of stores a search returns
+     */
+    public ProductSearch(Amazon esql, int limit) {
+        this.esql = esql;
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Returns the stores nearest to a location that have a product in stock.
+     *
+     * @param productName the product
+     * @param latitude    the latitude of the location
+     * @param longitude   the longitude of the location
+     * @return rows of (storeID, numberOfUnits, pricePerUnit, distance), nearest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable nearestInStock(String productName, double latitude, double longitude) throws SQLException {
+        return this.esql.executeQueryAndReturnTable(NEAREST_IN_STOCK_SQL, latitude, longitude, productName, latitude,
+                longitude, this.limit);
+    }// end nearestInStock
+
+}// end ProductSearch
@@ -0,0 +1,522 @@
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * This class records what the Amazon query helpers do. Every statement they
+ * run is timed into a LatencyHistogram kept per SQL template, along with the
+ * rows it returned or changed and whether it failed. Statements slower than
+ * a threshold are written to standard error with their bind values, and the
+ * last SLOW_LOG_SIZE of them are kept.
+ *
+ * The menu and the HTTP server wrap each operation in begin, so the
+ * statements an operation runs on its thread are also added up into one
+ * database time per operation. That is the time spent in the database, not
+ * the time the operation took: in the menu that would include the user's
+ * typing.
+ *
+ * Each statement and operation is also a JFR event (Amazon.Query and
+ * Amazon.Operation), so a flight recording shows them next to GC pauses and
+ * lock waits. Everything else is read over JMX, see QueryMetricsMXBean.
+ *
+ * Bind values of statements on a password column are never logged.
+ *
+ */
+public class QueryMetrics implements QueryMetricsMXBean {
+
+    // statements slower than this are logged, unless -Damazon.slowQueryMillis says otherwise
+    public static final long DEFAULT_SLOW_QUERY_MILLIS = 250;
+
+    // number of slow queries kept for getSlowQueries
+    public static final int SLOW_LOG_SIZE = 50;
+
+    // templates beyond this many are counted together, so SQL built with
+    // values in it cannot grow the map without bound
+    private static final int MAX_TEMPLATES = 1000;
+    private static final String OTHER_TEMPLATES = "(other statements)";
+
+    // longest bind value and SQL text written to the slow query log
+    private static final int MAX_VALUE_LENGTH = 64;
+    private static final int MAX_SQL_LENGTH = 200;
+
+    private static final AtomicLong instances = new AtomicLong();
+
+    private final ConcurrentHashMap<String, Counter> statements = new ConcurrentHashMap<String, Counter>();
+    private final ConcurrentHashMap<String, Counter> operations = new ConcurrentHashMap<String, Counter>();
+    private final AtomicLong queryCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+    private final AtomicLong slowCount = new AtomicLong();
+    private final ArrayDeque<String> slowLog = new ArrayDeque<String>();
+    private volatile long slowNanos;
+
+    // the operation running on each thread, if any
+    private final ThreadLocal<Operation> current = new ThreadLocal<Operation>();
+
+    private ObjectName name = null;
+
+    // the counts of one statement template or operation
+    private static class Counter {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong queries = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+    }// end Counter
+
+    /**
+     * The counts of one statement template or operation, as JMX shows them.
+     * For a statement, queries is the number of times it ran; for an
+     * operation, the number of statements all of its runs issued.
+     */
+    public static class Stats {
+        private final String name;
+        private final long count;
+        private final long errors;
+        private final long rows;
+        private final long queries;
+        private final double meanMillis;
+        private final double p50Millis;
+        private final double p95Millis;
+        private final double p99Millis;
+        private final double maxMillis;
+
+        Stats(String name, Counter counter) {
+            LatencyHistogram h = counter.latency;
+            this.name = name;
+            this.count = h.count();
+            this.errors = counter.errors.get();
+            this.rows = counter.rows.get();
+            this.queries = counter.queries.get();
+            this.meanMillis = h.mean() / 1e6;
+            this.p50Millis = h.percentile(50) / 1e6;
+            this.p95Millis = h.percentile(95) / 1e6;
+            this.p99Millis = h.percentile(99) / 1e6;
+            this.maxMillis = h.max() / 1e6;
+        }
+
+        public String getName() {
+            return this.name;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getErrors() {
+            return this.errors;
+        }
+
+        public long getRows() {
+            return this.rows;
+        }
+
+        public long getQueries() {
+            return this.queries;
+        }
+
+        public double getMeanMillis() {
+            return this.meanMillis;
+        }
+
+        public double getP50Millis() {
+            return this.p50Millis;
+        }
+
+        public double getP95Millis() {
+            return this.p95Millis;
+        }
+
+        public double getP99Millis() {
+            return this.p99Millis;
+        }
+
+        public double getMaxMillis() {
+            return this.maxMillis;
+        }
+    }// end Stats
+
+    @Name("Amazon.Query")
+    @Label("SQL Query")
+    @Category("Amazon")
+    static class QueryEvent extends Event {
+        @Label("SQL")
+        String sql;
+        @Label("Operation")
+        String operation;
+        @Label("Rows")
+        long rows;
+        @Label("Failed")
+        boolean failed;
+    }// end QueryEvent
+
+    @Name("Amazon.Operation")
+    @Label("Operation")
+    @Category("Amazon")
+    static class OperationEvent extends Event {
+        @Label("Operation")
+        String operation;
+        @Label("Queries")
+        int queries;
+        @Label("Database Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long databaseNanos;
+        @Label("Failed")
+        boolean failed;
+    }// end OperationEvent
+
+    /**
+     * One statement being run, returned by start. Exactly one of done and
+     * failed must be called.
+     */
+    public final class Query {
+        private final String sql;
+        private final Object[] params;
+        private final long start;
+        private final QueryEvent event = new QueryEvent();
+
+        Query(String sql, Object[] params) {
+            this.sql = sql;
+            this.params = params;
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * Records the statement as done.
+         *
+         * @param rows the rows it returned or changed
+         * @return rows
+         */
+        public int done(int rows) {
+            record(this, rows, null);
+            return rows;
+        }
+
+        /**
+         * Records the statement as failed.
+         *
+         * @param e the failure
+         * @return e, for the caller to rethrow
+         */
+        public SQLException failed(SQLException e) {
+            record(this, 0, e);
+            return e;
+        }
+    }// end Query
+
+    /**
+     * One operation being run on the current thread, returned by begin.
+     * Closing it records the operation and makes the enclosing one current
+     * again. Statements the operation hands to other threads through
+     * AsyncQueryExecutor are added to it as well, so its database time is the
+     * total over all of them, not the time spent waiting.
+     */
+    public final class Operation implements AutoCloseable {
+        private final String name;
+        private final Operation outer;
+        private final OperationEvent event = new OperationEvent();
+        private long databaseNanos = 0;
+        private int queries = 0;
+        private boolean failed = false;
+
+        Operation(String name, Operation outer) {
+            this.name = name;
+            this.outer = outer;
+            this.event.begin();
+        }
+
+        // adds a statement run for this operation, on any thread
+        synchronized void add(long nanos, boolean failed) {
+            this.databaseNanos += nanos;
+            this.queries++;
+            if (failed)
+                this.failed = true;
+        }
+
+        synchronized void fail() {
+            this.failed = true;
+        }
+
+        public synchronized void close() {
+            QueryMetrics.this.current.set(this.outer);
+            Counter counter = counter(QueryMetrics.this.operations, this.name);
+            counter.latency.record(this.databaseNanos);
+            counter.queries.addAndGet(this.queries);
+            if (this.failed)
+                counter.errors.incrementAndGet();
+
+            this.event.end();
+            if (this.event.shouldCommit()) {
+                this.event.operation = this.name;
+                this.event.queries = this.queries;
+                this.event.databaseNanos = this.databaseNanos;
+                this.event.failed = this.failed;
+                this.event.commit();
+            }
+        }// end close
+    }// end Operation
+
+    public QueryMetrics() {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.getLong("amazon.slowQueryMillis", DEFAULT_SLOW_QUERY_MILLIS));
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server.
+     *
+     * @param database the database name, to tell instances apart
+     * @throws javax.management.JMException when registration failed
+     */
+    public synchronized void register(String database) throws JMException {
+        ObjectName name = new ObjectName("Amazon:type=QueryMetrics,database=" + ObjectName.quote(database)
+                + ",id=" + instances.incrementAndGet());
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        this.name = name;
+    }// end register
+
+    // removes these metrics from the MBean server, if registered
+    public synchronized void unregister() {
+        if (this.name == null)
+            return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(this.name);
+        } catch (JMException e) {
+            // already gone
+        }
+        this.name = null;
+    }// end unregister
+
+    /**
+     * Starts timing a statement.
+     *
+     * @param sql    the statement template
+     * @param params its bind values, for the slow query log
+     * @return the running statement, to be ended with done or failed
+     */
+    public Query start(String sql, Object... params) {
+        return new Query(sql, params);
+    }
+
+    /**
+     * Starts an operation on the current thread. The statements run on this
+     * thread until the operation is closed are added to it.
+     *
+     * @param name the operation, e.g. the menu method or HTTP endpoint
+     * @return the operation, to be closed when it ends
+     */
+    public Operation begin(String name) {
+        Operation operation = new Operation(name, this.current.get());
+        this.current.set(operation);
+        return operation;
+    }
+
+    /**
+     * Counts a failure against the operation running on the current thread,
+     * for failures the operation handles itself.
+     *
+     * @param e the failure
+     */
+    public void operationFailed(Exception e) {
+        Operation operation = this.current.get();
+        if (operation != null)
+            operation.fail();
+    }
+
+    // the operation running on the current thread, or null
+    Operation current() {
+        return this.current.get();
+    }
+
+    /**
+     * Makes an operation begun on another thread the current one on this
+     * thread, so the statements run here are added to it.
+     *
+     * @param operation the operation, or null for none
+     * @return the operation that was current before, to be resumed afterwards
+     */
+    Operation resume(Operation operation) {
+        Operation previous = this.current.get();
+        if (operation == null)
+            this.current.remove();
+        else
+            this.current.set(operation);
+        return previous;
+    }// end resume
+
+    public long getQueryCount() {
+        return this.queryCount.get();
+    }
+
+    public long getErrorCount() {
+        return this.errorCount.get();
+    }
+
+    public long getSlowQueryCount() {
+        return this.slowCount.get();
+    }
+
+    public String[] getSlowQueries() {
+        synchronized (this.slowLog) {
+            return this.slowLog.toArray(new String[this.slowLog.size()]);
+        }
+    }
+
+    public long getSlowQueryThresholdMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(this.slowNanos);
+    }
+
+    public void setSlowQueryThresholdMillis(long millis) {
+        this.slowNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    public List<Stats> getStatements() {
+        return snapshot(this.statements);
+    }
+
+    public List<Stats> getOperations() {
+        return snapshot(this.operations);
+    }
+
+    public void reset() {
+        this.statements.clear();
+        this.operations.clear();
+        this.queryCount.set(0);
+        this.errorCount.set(0);
+        this.slowCount.set(0);
+        synchronized (this.slowLog) {
+            this.slowLog.clear();
+        }
+    }// end reset
+
+    /**
+     * Returns the operations and statements as a text table, slowest p99
+     * first.
+     *
+     * @return the report
+     */
+    public String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-40s %8s %7s %9s %9s %9s %9s %9s%n",
+                "operation (database time)", "count", "errors", "queries", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Stats s : getOperations()) {
+            out.append(String.format("%-40s %8d %7d %9d %9.2f %9.2f %9.2f %9.2f%n", shorten(s.name, 40), s.count,
+                    s.errors, s.queries, s.p50Millis, s.p95Millis, s.p99Millis, s.maxMillis));
+        }
+        out.append(String.format("%n%-40s %8s %7s %9s %9s %9s %9s %9s%n",
+                "statement", "count", "errors", "rows", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+        for (Stats s : getStatements()) {
+            out.append(String.format("%-40s %8d %7d %9d %9.2f %9.2f %9.2f %9.2f%n", shorten(s.name, 40), s.count,
+                    s.errors, s.rows, s.p50Millis, s.p95Millis, s.p99Millis, s.maxMillis));
+        }
+        out.append(getQueryCount() + " statements, " + getErrorCount() + " failed, " + getSlowQueryCount()
+                + " slower than " + getSlowQueryThresholdMillis() + " ms");
+        return out.toString();
+    }// end report
+
+    // records a finished statement against its template and the current operation
+    private void record(Query query, int rows, SQLException failure) {
+        long nanos = System.nanoTime() - query.start;
+        Counter counter = counter(this.statements, query.sql);
+        counter.latency.record(nanos);
+        counter.queries.incrementAndGet();
+        counter.rows.addAndGet(rows);
+        this.queryCount.incrementAndGet();
+        if (failure != null) {
+            counter.errors.incrementAndGet();
+            this.errorCount.incrementAndGet();
+        }
+
+        Operation operation = this.current.get();
+        if (operation != null)
+            operation.add(nanos, failure != null);
+
+        if (nanos >= this.slowNanos)
+            logSlowQuery(query, nanos, rows, failure, operation);
+
+        QueryEvent event = query.event;
+        event.end();
+        if (event.shouldCommit()) {
+            event.sql = query.sql;
+            event.operation = operation == null ? null : operation.name;
+            event.rows = rows;
+            event.failed = failure != null;
+            event.commit();
+        }
+    }// end record
+
+    private void logSlowQuery(Query query, long nanos, int rows, SQLException failure, Operation operation) {
+        boolean redact = query.sql.toLowerCase().contains("password");
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%.1f ms", nanos / 1e6));
+        if (operation != null)
+            line.append(" in ").append(operation.name);
+        line.append(failure == null ? ", " + rows + " rows: " : ", failed: ");
+        line.append(shorten(query.sql.replaceAll("\\s+", " "), MAX_SQL_LENGTH));
+        line.append(" [");
+        for (int i = 0; i < query.params.length; i++) {
+            if (i > 0)
+                line.append(", ");
+            Object value = query.params[i];
+            if (redact)
+                line.append("***");
+            else if (value == null)
+                line.append("NULL");
+            else if (value instanceof String)
+                line.append('\'').append(shorten((String) value, MAX_VALUE_LENGTH)).append('\'');
+            else
+                line.append(value);
+        }
+        line.append(']');
+        String entry = line.toString();
+
+        this.slowCount.incrementAndGet();
+        synchronized (this.slowLog) {
+            if (this.slowLog.size() == SLOW_LOG_SIZE)
+                this.slowLog.removeFirst();
+            this.slowLog.addLast(entry);
+        }
+        System.err.println("Slow query: " + entry);
+    }// end logSlowQuery
+
+    private static Counter counter(ConcurrentHashMap<String, Counter> counters, String key) {
+        Counter counter = counters.get(key);
+        if (counter != null)
+            return counter;
+        if (counters.size() >= MAX_TEMPLATES)
+            key = OTHER_TEMPLATES;
+        return counters.computeIfAbsent(key, k -> new Counter());
+    }// end counter
+
+    // every counter, slowest p99 first
+    private static List<Stats> snapshot(Map<String, Counter> counters) {
+        List<Stats> stats = new ArrayList<Stats>();
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            stats.add(new Stats(entry.getKey(), entry.getValue()));
+        }
+        Collections.sort(stats, Comparator.comparingDouble(Stats::getP99Millis).reversed());
+        return stats;
+    }// end snapshot
+
+    private static String shorten(String text, int length) {
+        return text.length() <= length ? text : text.substring(0, length - 3) + "...";
+    }
+
+}// end QueryMetrics
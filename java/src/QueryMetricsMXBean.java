@@ -0,0 +1,37 @@
+import java.util.List;
+
+/**
+ * The JMX view of QueryMetrics, registered under
+ * Amazon:type=QueryMetrics,database=NAME,id=N for every Amazon instance.
+ * Latencies are in milliseconds.
+ *
+ */
+public interface QueryMetricsMXBean {
+
+    // queries run through the Amazon helpers, and how many of them failed
+    long getQueryCount();
+
+    long getErrorCount();
+
+    // queries slower than the threshold, and the most recent of them
+    long getSlowQueryCount();
+
+    String[] getSlowQueries();
+
+    long getSlowQueryThresholdMillis();
+
+    void setSlowQueryThresholdMillis(long millis);
+
+    // per statement template, slowest p99 first
+    List<QueryMetrics.Stats> getStatements();
+
+    // database time per menu or HTTP operation, slowest p99 first
+    List<QueryMetrics.Stats> getOperations();
+
+    // the statements and operations as a text table
+    String report();
+
+    // forgets everything recorded so far
+    void reset();
+
+}// end QueryMetricsMXBean
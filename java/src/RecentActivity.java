@@ -0,0 +1,113 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+
+/**
+ * This class answers the "most recent N" questions of the application with
+ * one query each, pushing the limit down to the database. Recent product
+ * updates across all of a manager's stores read at most N rows per store from
+ * the (storeID, updatedOn DESC) index and keep the newest N overall; recent
+ * orders of a customer read the newest N rows from the
+ * (customerID, orderTime DESC) index.
+ *
+ * Orders and ProductUpdates are partitioned by month, so both queries first
+ * look only at the last RECENT_MONTHS months, which the database answers
+ * from those months' partitions alone. Only when that finds fewer than N
+ * rows is the query repeated over the whole history, a second round trip.
+ * With data that ends long before today, such as the bundled 2016 data,
+ * that is every call.
+ *
+ * N is DEFAULT_LIMIT unless set with the recent=N option of Amazon or the
+ * recent limit argument of AmazonServer.
+ *
+ */
+public class RecentActivity {
+
+    public static final int DEFAULT_LIMIT = 5;
+
+    // the current month and the ones before it looked at first
+    public static final int RECENT_MONTHS = 3;
+
+    // newest updates per store through the index, then the newest overall
+    static final String RECENT_UPDATES_ANY_TIME_SQL =
+            "SELECT s.storeID, u.productName, u.updatedOn FROM Store s CROSS JOIN LATERAL "
+            + "(SELECT p.productName, p.updatedOn FROM ProductUpdates p WHERE p.storeID = s.storeID "
+            + "ORDER BY p.updatedOn DESC LIMIT ?) u "
+            + "WHERE s.managerID = ? ORDER BY u.updatedOn DESC LIMIT ?";
+
+    // the same, only reading the partitions from the cutoff on
+    static final String RECENT_UPDATES_SQL =
+            "SELECT s.storeID, u.productName, u.updatedOn FROM Store s CROSS JOIN LATERAL "
+            + "(SELECT p.productName, p.updatedOn FROM ProductUpdates p WHERE p.storeID = s.storeID "
+            + "AND p.updatedOn >= ? ORDER BY p.updatedOn DESC LIMIT ?) u "
+            + "WHERE s.managerID = ? ORDER BY u.updatedOn DESC LIMIT ?";
+
+    static final String RECENT_ORDERS_ANY_TIME_SQL =
+            "SELECT storeID, productName, unitsOrdered, orderTime FROM Orders "
+            + "WHERE customerID = ? ORDER BY orderTime DESC LIMIT ?";
+
+    static final String RECENT_ORDERS_SQL =
+            "SELECT storeID, productName, unitsOrdered, orderTime FROM Orders "
+            + "WHERE customerID = ? AND orderTime >= ? ORDER BY orderTime DESC LIMIT ?";
+
+    private final Amazon esql;
+    private final int limit;
+
+    public RecentActivity(Amazon esql) {
+        this(esql, DEFAULT_LIMIT);
+    }
+
+    /**
+     * Creates a recent activity engine
+     *
+     * @param esql  the application whose connection pool is used
+     * @param limit the number of entries each query returns, at least 1
+     * @throws IllegalArgumentException when the limit is below 1
+     */
+    public RecentActivity(Amazon esql, int limit) {
+        if (limit < 1)
+            throw new IllegalArgumentException("Recent limit must be at least 1");
+        this.esql = esql;
+        this.limit = limit;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * Returns the newest product updates across every store a manager runs.
+     *
+     * @param managerID the user ID of the manager
+     * @return rows of (storeID, productName, updatedOn), newest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable recentUpdates(int managerID) throws SQLException {
+        ResultTable recent = this.esql.executeQueryAndReturnTable(RECENT_UPDATES_SQL, cutoff(), this.limit,
+                managerID, this.limit);
+        if (recent.rowCount() >= this.limit)
+            return recent;
+        return this.esql.executeQueryAndReturnTable(RECENT_UPDATES_ANY_TIME_SQL, this.limit, managerID, this.limit);
+    }// end recentUpdates
+
+    /**
+     * Returns the newest orders of a customer.
+     *
+     * @param customerID the user ID of the customer
+     * @return rows of (storeID, productName, unitsOrdered, orderTime), newest first
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public ResultTable recentOrders(int customerID) throws SQLException {
+        ResultTable recent = this.esql.executeQueryAndReturnTable(RECENT_ORDERS_SQL, customerID, cutoff(),
+                this.limit);
+        if (recent.rowCount() >= this.limit)
+            return recent;
+        return this.esql.executeQueryAndReturnTable(RECENT_ORDERS_ANY_TIME_SQL, customerID, this.limit);
+    }// end recentOrders
+
+    // the start of the first of the RECENT_MONTHS months, on a partition boundary
+    static Timestamp cutoff() {
+        return Timestamp.valueOf(LocalDate.now().withDayOfMonth(1).minusMonths(RECENT_MONTHS - 1).atStartOfDay());
+    }
+
+}// end RecentActivity
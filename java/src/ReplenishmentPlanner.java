@@ -0,0 +1,248 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * This class restocks products in bulk. It finds every product whose stock
+ * is below a threshold, routes each one to the warehouse nearest to its
+ * store, and requests enough units to bring it back to a target level.
+ *
+ * A run reads the low stock rows and the warehouses with one query each and
+ * routes the products through a SpatialIndex over the warehouses. The supply
+ * requests and the stock increments are then written as two JDBC batches in
+ * one UnitOfWork, with the low stock rows locked from the read to the
+ * commit, so a restock commits once however many products it covers. The
+ * bundled driver still sends each statement of a batch on its own round
+ * trip. A dry run plans the same requests without locking or writing
+ * anything, reading the low stock rows and the warehouses concurrently.
+ *
+ */
+public class ReplenishmentPlanner {
+
+    public static final int DEFAULT_THRESHOLD = 10;
+    public static final int DEFAULT_TARGET = 100;
+
+    static final String LOW_STOCK_SQL =
+            "SELECT p.storeID, p.productName, p.numberOfUnits, s.managerID, s.latitude, s.longitude "
+            + "FROM Product p JOIN Store s ON s.storeID = p.storeID WHERE p.numberOfUnits < ?";
+    static final String WAREHOUSES_SQL =
+            "SELECT warehouseID, latitude, longitude FROM Warehouse";
+    static final String NEAREST_WAREHOUSE_SQL =
+            "SELECT w.warehouseID FROM Warehouse w, Store s WHERE s.storeID = ? "
+            + "ORDER BY (w.latitude - s.latitude) ^ 2 + (w.longitude - s.longitude) ^ 2, w.warehouseID LIMIT 1";
+
+    private final Amazon esql;
+    private final int threshold;
+    private final int target;
+
+    /**
+     * A supply request the planner makes.
+     */
+    public static class Request {
+        public final int storeID;
+        public final String productName;
+        public final int managerID;
+        public final int stock;
+        public final int warehouseID;
+        public final double distance;
+        public final int units;
+
+        Request(int storeID, String productName, int managerID, int stock, int warehouseID, double distance,
+                int units) {
+            this.storeID = storeID;
+            this.productName = productName;
+            this.managerID = managerID;
+            this.stock = stock;
+            this.warehouseID = warehouseID;
+            this.distance = distance;
+            this.units = units;
+        }
+    }// end Request
+
+    /**
+     * The requests of a run and whether they were written.
+     */
+    public static class Plan {
+        public final List<Request> requests = new ArrayList<Request>();
+        public long units = 0;
+        public boolean applied = false;
+    }// end Plan
+
+    public ReplenishmentPlanner(Amazon esql) {
+        this(esql, DEFAULT_THRESHOLD, DEFAULT_TARGET);
+    }
+
+    /**
+     * Creates a planner
+     *
+     * @param esql      the application whose connection pool is used
+     * @param threshold products with fewer units than this are restocked
+     * @param target    the number of units a restocked product ends up with
+     */
+    public ReplenishmentPlanner(Amazon esql, int threshold, int target) {
+        if (target < threshold)
+            throw new IllegalArgumentException("The target " + target + " is below the threshold " + threshold);
+        this.esql = esql;
+        this.threshold = threshold;
+        this.target = target;
+    }// end ReplenishmentPlanner
+
+    /**
+     * Plans the supply requests without writing them.
+     *
+     * @param managerID only restock this manager's stores, or null for every store
+     * @return the requests that run would make
+     * @throws java.sql.SQLException when failed to execute the queries
+     */
+    public Plan plan(Integer managerID) throws SQLException {
+        // the two reads are independent, so the warehouses are read meanwhile
+        CompletableFuture<ResultTable> warehouses = this.esql.getAsync().queryTable(WAREHOUSES_SQL);
+        String sql = lowStockSql(managerID, false);
+        ResultTable lowStock = managerID == null ? this.esql.executeQueryAndReturnTable(sql, this.threshold)
+                : this.esql.executeQueryAndReturnTable(sql, this.threshold, managerID);
+        return route(lowStock, index(AsyncQueryExecutor.await(warehouses)));
+    }// end plan
+
+    /**
+     * Makes the supply requests for every low stock product in one
+     * transaction: the low stock rows are locked, the requests are inserted
+     * and the stock is raised to the target.
+     *
+     * @param managerID only restock this manager's stores, or null for every store
+     * @return the requests made
+     * @throws java.sql.SQLException when the transaction failed; nothing is written then
+     */
+    public Plan run(Integer managerID) throws SQLException {
+        SpatialIndex warehouses = index(this.esql.executeQueryAndReturnTable(WAREHOUSES_SQL));
+        Plan plan = UnitOfWork.run(this.esql, work -> {
+            // locked until the commit, so orders placed meanwhile wait instead of racing the restock
+            ResultTable lowStock = managerID == null ? work.query(lowStockSql(null, true), this.threshold)
+                    : work.query(lowStockSql(managerID, true), this.threshold, managerID);
+            Plan routed = route(lowStock, warehouses);
+            for (Request r : routed.requests) {
+                work.batch(Amazon.SUPPLY_REQUEST_SQL, r.managerID, r.warehouseID, r.storeID, r.productName, r.units);
+            }
+            for (Request r : routed.requests) {
+                work.batch(Amazon.RESTOCK_SQL, r.units, r.storeID, r.productName);
+                work.invalidate(r.storeID);
+            }
+            return routed;
+        });
+        plan.applied = true;
+        return plan;
+    }// end run
+
+    /**
+     * Returns the warehouse nearest to a store.
+     *
+     * @param esql    the application
+     * @param storeID the store
+     * @return the warehouse ID, or -1 if the store or warehouses do not exist
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public static int nearestWarehouse(Amazon esql, int storeID) throws SQLException {
+        ResultTable nearest = esql.executeQueryAndReturnTable(NEAREST_WAREHOUSE_SQL, storeID);
+        return nearest.rowCount() == 0 ? -1 : nearest.getInt(0, 0);
+    }
+
+    // the low stock query, for one manager's stores if managerID is set, locking the rows if asked
+    static String lowStockSql(Integer managerID, boolean lock) {
+        return LOW_STOCK_SQL + (managerID == null ? "" : " AND s.managerID = ?")
+                + " ORDER BY p.storeID, p.productName" + (lock ? " FOR UPDATE OF p" : "");
+    }
+
+    // the warehouses read by WAREHOUSES_SQL
+    private static SpatialIndex index(ResultTable warehouses) {
+        SpatialIndex index = new SpatialIndex();
+        for (int i = 0; i < warehouses.rowCount(); i++) {
+            index.add(warehouses.getInt(i, 0), warehouses.getDouble(i, 1), warehouses.getDouble(i, 2));
+        }
+        return index;
+    }// end index
+
+    // one request per low stock row, to the warehouse nearest its store
+    private Plan route(ResultTable lowStock, SpatialIndex warehouses) {
+        Plan plan = new Plan();
+        if (warehouses.size() == 0)
+            return plan;
+
+        // stores repeat once per low product, so each is routed once
+        Map<Integer, SpatialIndex.Result> routes = new HashMap<Integer, SpatialIndex.Result>();
+        for (int row = 0; row < lowStock.rowCount(); row++) {
+            int storeID = lowStock.getInt(row, 0);
+            SpatialIndex.Result nearest = routes.get(storeID);
+            if (nearest == null) {
+                nearest = warehouses.nearest(lowStock.getDouble(row, 4), lowStock.getDouble(row, 5), 1);
+                routes.put(storeID, nearest);
+            }
+
+            int stock = lowStock.getInt(row, 2);
+            int units = this.target - stock;
+            plan.requests.add(new Request(storeID, lowStock.getString(row, 1).trim(), lowStock.getInt(row, 3), stock,
+                    nearest.ids[0], nearest.distances[0], units));
+            plan.units += units;
+        }
+        return plan;
+    }// end route
+
+    /**
+     * Restocks every store, printing the requests.
+     *
+     * @param args <dbname> <port> <user> [threshold=N] [target=N] [dryrun=true]
+     */
+    public static void main(String[] args) {
+        if (args.length < 3) {
+            System.err.println(
+                    "Usage: " +
+                            "java [-classpath <classpath>] " +
+                            ReplenishmentPlanner.class.getName() +
+                            " <dbname> <port> <user> [threshold=N] [target=N] [dryrun=true]");
+            return;
+        } // end if
+
+        int threshold = DEFAULT_THRESHOLD;
+        int target = DEFAULT_TARGET;
+        boolean dryRun = false;
+        for (int i = 3; i < args.length; i++) {
+            String[] option = args[i].split("=", 2);
+            String value = option.length == 2 ? option[1] : "";
+            if (option[0].equals("threshold"))
+                threshold = Integer.parseInt(value);
+            else if (option[0].equals("target"))
+                target = Integer.parseInt(value);
+            else if (option[0].equals("dryrun"))
+                dryRun = Boolean.parseBoolean(value);
+            else {
+                System.err.println("Unknown option " + args[i]);
+                return;
+            }
+        }
+
+        Amazon esql = null;
+        try {
+            Class.forName("org.postgresql.Driver");
+            esql = new Amazon(args[0], args[1], args[2], "");
+            ReplenishmentPlanner planner = new ReplenishmentPlanner(esql, threshold, target);
+
+            long start = System.currentTimeMillis();
+            Plan plan = dryRun ? planner.plan(null) : planner.run(null);
+            long elapsed = System.currentTimeMillis() - start;
+
+            for (Request r : plan.requests) {
+                System.out.println(String.format("Store %d %-30s %4d units -> %4d from warehouse %d (%.1f miles)",
+                        r.storeID, r.productName, r.stock, r.stock + r.units, r.warehouseID, r.distance));
+            }
+            System.out.println((dryRun ? "Would request " : "Requested ") + plan.units + " units in "
+                    + plan.requests.size() + " supply requests in " + elapsed + " ms");
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+        } finally {
+            if (esql != null)
+                esql.cleanup();
+        }
+    }// end main
+
+}// end ReplenishmentPlanner
@@ -0,0 +1,310 @@
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * This class renders report rows into a buffered writer, one row at a time.
+ * It is a RowHandler, so with executeQueryAndStream the rows go from the
+ * cursor to the output without being collected, and memory use stays flat
+ * however large the report is. Rows already read into a ResultTable can be
+ * written with write.
+ *
+ * Three formats are supported:
+ * TEXT  - for the screen; with labels, one "Label: value" line per column
+ *         and a separator after each row, otherwise tab separated columns
+ *         under a header line
+ * CSV   - a header line of column names, also without rows, then RFC 4180
+ *         rows
+ * JSONL - one JSON object per row, keyed by column name
+ *
+ * Text values have the padding of char columns trimmed. Output is only
+ * guaranteed to be written after flush or close.
+ *
+ */
+public class ReportWriter implements RowHandler, AutoCloseable {
+
+    // formats
+    public static final int TEXT = 0;
+    public static final int CSV = 1;
+    public static final int JSONL = 2;
+
+    private static final String[] FORMAT_NAMES = { "text", "csv", "jsonl" };
+    private static final String SEPARATOR = "---------";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private final int format;
+    private final String[] labels;
+
+    // false for System.out, which is flushed but left open
+    private final boolean closeOut;
+
+    // column names and kinds, read from the first row
+    private String[] names = null;
+    private int[] kinds = null;
+    private String[] keys = null;
+
+    private long rowCount = 0;
+
+    /**
+     * Creates a report writer
+     *
+     * @param out      where the report goes, buffered by the caller
+     * @param format   TEXT, CSV or JSONL
+     * @param closeOut whether close closes out as well
+     * @param labels   the heading of each column in TEXT format, or none for column names
+     */
+    public ReportWriter(Writer out, int format, boolean closeOut, String... labels) {
+        if (format < TEXT || format > JSONL)
+            throw new IllegalArgumentException("Unknown report format " + format);
+        this.out = out;
+        this.format = format;
+        this.closeOut = closeOut;
+        this.labels = labels.length == 0 ? null : labels;
+    }// end ReportWriter
+
+    // a report on standard out, flushed by flush and close
+    public static ReportWriter toStdout(int format, String... labels) {
+        return new ReportWriter(new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8),
+                BUFFER_SIZE), format, false, labels);
+    }
+
+    /**
+     * Creates a report writing to a file, replacing it if it exists.
+     *
+     * @param path   the file
+     * @param format TEXT, CSV or JSONL
+     * @param labels the heading of each column in TEXT format, or none for column names
+     * @return the report writer, which must be closed
+     * @throws java.io.IOException when the file cannot be created
+     */
+    public static ReportWriter toFile(String path, int format, String... labels) throws IOException {
+        return new ReportWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path),
+                StandardCharsets.UTF_8), BUFFER_SIZE), format, true, labels);
+    }
+
+    /**
+     * Returns the format with the given name.
+     *
+     * @param name text, csv or jsonl, in any case
+     * @return TEXT, CSV or JSONL
+     * @throws IllegalArgumentException when the name is not a format
+     */
+    public static int parseFormat(String name) {
+        for (int format = 0; format < FORMAT_NAMES.length; format++) {
+            if (FORMAT_NAMES[format].equalsIgnoreCase(name.trim()))
+                return format;
+        }
+        throw new IllegalArgumentException("Unknown report format " + name + ", use text, csv or jsonl");
+    }// end parseFormat
+
+    public long getRowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Reads the columns from the result set metadata and writes the header,
+     * so a report with no rows still has one.
+     *
+     * @param rsmd the metadata of the result
+     * @throws java.sql.SQLException when failed to read the metadata or to write the header
+     */
+    public void begin(ResultSetMetaData rsmd) throws SQLException {
+        if (this.names != null)
+            return;
+        String[] names = new String[rsmd.getColumnCount()];
+        int[] kinds = new int[names.length];
+        for (int col = 0; col < names.length; col++) {
+            names[col] = rsmd.getColumnName(col + 1);
+            kinds[col] = ResultTable.kindOf(rsmd.getColumnType(col + 1));
+        }
+        try {
+            begin(names, kinds);
+        } catch (IOException e) {
+            throw new SQLException("Failed to write the report: " + e.getMessage());
+        }
+    }// end begin
+
+    /**
+     * Writes the row the result set is positioned on. The columns are read
+     * from the result set metadata on the first row if begin was not called.
+     *
+     * @param rs the result set
+     * @throws java.sql.SQLException when failed to read the row or to write it
+     */
+    public void handleRow(ResultSet rs) throws SQLException {
+        if (this.names == null)
+            begin(rs.getMetaData());
+        try {
+            startRow();
+            for (int col = 0; col < this.kinds.length; col++) {
+                String value;
+                switch (this.kinds[col]) {
+                    case ResultTable.INT:
+                        value = String.valueOf(rs.getInt(col + 1));
+                        break;
+                    case ResultTable.LONG:
+                        value = String.valueOf(rs.getLong(col + 1));
+                        break;
+                    case ResultTable.DOUBLE:
+                        value = String.valueOf(rs.getDouble(col + 1));
+                        break;
+                    case ResultTable.TIMESTAMP:
+                        Timestamp time = rs.getTimestamp(col + 1);
+                        value = time == null ? null : ResultTable.format(time);
+                        break;
+                    case ResultTable.DATE:
+                        Date date = rs.getDate(col + 1);
+                        value = date == null ? null : date.toString();
+                        break;
+                    default:
+                        value = rs.getString(col + 1);
+                }
+                cell(col, rs.wasNull() ? null : value);
+            }
+            endRow();
+        } catch (IOException e) {
+            throw new SQLException("Failed to write the report: " + e.getMessage());
+        }
+    }// end handleRow
+
+    /**
+     * Writes every row of a table.
+     *
+     * @param table the rows
+     * @throws java.io.IOException when failed to write
+     */
+    public void write(ResultTable table) throws IOException {
+        if (this.names == null) {
+            String[] names = new String[table.columnCount()];
+            int[] kinds = new int[names.length];
+            for (int col = 0; col < names.length; col++) {
+                names[col] = table.columnName(col);
+                kinds[col] = table.columnKind(col);
+            }
+            begin(names, kinds);
+        }
+
+        for (int row = 0; row < table.rowCount(); row++) {
+            startRow();
+            for (int col = 0; col < this.kinds.length; col++) {
+                cell(col, table.getString(row, col));
+            }
+            endRow();
+        }
+    }// end write
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    public void close() throws IOException {
+        if (this.closeOut)
+            this.out.close();
+        else
+            this.out.flush();
+    }
+
+    // remembers the columns and writes the header line
+    private void begin(String[] names, int[] kinds) throws IOException {
+        if (this.labels != null && this.labels.length != names.length)
+            throw new IllegalArgumentException(this.labels.length + " labels for " + names.length + " columns");
+        this.names = names;
+        this.kinds = kinds;
+        if (this.format == CSV) {
+            for (int col = 0; col < names.length; col++) {
+                if (col > 0)
+                    this.out.write(',');
+                csv(names[col]);
+            }
+            this.out.write('\n');
+        } else if (this.format == JSONL) {
+            // quoted once, written on every row
+            this.keys = new String[names.length];
+            for (int col = 0; col < names.length; col++) {
+                this.keys[col] = Json.quote(new StringBuilder(), names[col]).append(':').toString();
+            }
+        } else if (this.labels == null) {
+            for (int col = 0; col < names.length; col++) {
+                this.out.write(names[col]);
+                this.out.write('\t');
+            }
+            this.out.write('\n');
+        }
+    }// end begin
+
+    private void startRow() throws IOException {
+        if (this.format == JSONL)
+            this.out.write('{');
+    }
+
+    private void endRow() throws IOException {
+        if (this.format == JSONL)
+            this.out.write('}');
+        if (this.format == TEXT && this.labels != null)
+            this.out.write(SEPARATOR);
+        this.out.write('\n');
+        this.rowCount++;
+    }
+
+    private void cell(int col, String value) throws IOException {
+        if (value != null && this.kinds[col] == ResultTable.STRING)
+            value = value.trim();
+
+        switch (this.format) {
+            case CSV:
+                if (col > 0)
+                    this.out.write(',');
+                if (value != null)
+                    csv(value);
+                break;
+            case JSONL:
+                if (col > 0)
+                    this.out.write(',');
+                this.out.write(this.keys[col]);
+                if (value == null)
+                    this.out.write("null");
+                else if (this.kinds[col] == ResultTable.INT || this.kinds[col] == ResultTable.LONG
+                        || this.kinds[col] == ResultTable.DOUBLE)
+                    this.out.write(value);
+                else
+                    this.out.write(Json.quote(new StringBuilder(value.length() + 2), value).toString());
+                break;
+            default:
+                if (this.labels != null) {
+                    this.out.write(this.labels[col]);
+                    this.out.write(": ");
+                    this.out.write(String.valueOf(value));
+                    this.out.write('\n');
+                } else {
+                    this.out.write(String.valueOf(value));
+                    this.out.write('\t');
+                }
+        }
+    }// end cell
+
+    // quotes a CSV field only when it holds a comma, quote or line break
+    private void csv(String value) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            this.out.write(value);
+            return;
+        }
+        this.out.write('"');
+        this.out.write(value.replace("\"", "\"\""));
+        this.out.write('"');
+    }// end csv
+
+}// end ReportWriter
@@ -0,0 +1,436 @@
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class holds a query result column by column in primitive arrays.
+ * Integer columns are read with getInt into an int[], numeric columns with
+ * getDouble into a double[], timestamps with getTimestamp into a long[] of
+ * epoch microseconds, the precision PostgreSQL stores, dates with getDate
+ * into a long[] of epoch milliseconds, and everything else as Strings.
+ * Callers read typed values back without re-parsing strings, and a row costs
+ * no per-row objects.
+ *
+ * Rows and columns are numbered from 0. As text, a timestamp reads as
+ * "yyyy-mm-dd hh:mm:ss" with fractional seconds only when it has them, and a
+ * date as "yyyy-mm-dd".
+ *
+ */
+public class ResultTable {
+
+    // column kinds
+    public static final int INT = 0;
+    public static final int LONG = 1;
+    public static final int DOUBLE = 2;
+    public static final int TIMESTAMP = 3;
+    public static final int STRING = 4;
+    public static final int DATE = 5;
+
+    private final String[] names;
+    private final int[] kinds;
+
+    // one int[], long[], double[] or String[] per column
+    private final Object[] columns;
+
+    // null flags, allocated for a column the first time it holds a null
+    private final BitSet[] nulls;
+
+    private int rowCount = 0;
+    private int capacity;
+
+    /**
+     * A view of one row of the table.
+     */
+    public class Row {
+        private final int row;
+
+        Row(int row) {
+            this.row = row;
+        }
+
+        public int getInt(int col) {
+            return ResultTable.this.getInt(this.row, col);
+        }
+
+        public long getLong(int col) {
+            return ResultTable.this.getLong(this.row, col);
+        }
+
+        public double getDouble(int col) {
+            return ResultTable.this.getDouble(this.row, col);
+        }
+
+        public long getTimestampMillis(int col) {
+            return ResultTable.this.getTimestampMillis(this.row, col);
+        }
+
+        public Timestamp getTimestamp(int col) {
+            return ResultTable.this.getTimestamp(this.row, col);
+        }
+
+        public String getString(int col) {
+            return ResultTable.this.getString(this.row, col);
+        }
+
+        public boolean isNull(int col) {
+            return ResultTable.this.isNull(this.row, col);
+        }
+    }// end Row
+
+    /**
+     * Creates an empty table with the given columns
+     *
+     * @param names the column names
+     * @param kinds the kind of each column: INT, LONG, DOUBLE, TIMESTAMP, DATE or STRING
+     */
+    public ResultTable(String[] names, int[] kinds) {
+        this(names, kinds, 16);
+    }
+
+    public ResultTable(String[] names, int[] kinds, int capacity) {
+        this.names = names;
+        this.kinds = kinds;
+        this.capacity = Math.max(capacity, 1);
+        this.columns = new Object[kinds.length];
+        this.nulls = new BitSet[kinds.length];
+        for (int col = 0; col < kinds.length; col++) {
+            this.columns[col] = allocate(kinds[col], this.capacity);
+        }
+    }// end ResultTable
+
+    /**
+     * Reads every row of a result set into a new table. Column kinds are
+     * chosen from the result set metadata.
+     *
+     * @param rs the result set, positioned before the first row
+     * @return the rows of the result set
+     * @throws java.sql.SQLException when failed to read the result set
+     */
+    public static ResultTable fromResultSet(ResultSet rs) throws SQLException {
+        ResultSetMetaData rsmd = rs.getMetaData();
+        int numCol = rsmd.getColumnCount();
+        String[] names = new String[numCol];
+        int[] kinds = new int[numCol];
+        for (int col = 0; col < numCol; col++) {
+            names[col] = rsmd.getColumnName(col + 1);
+            kinds[col] = kindOf(rsmd.getColumnType(col + 1));
+        }
+
+        ResultTable table = new ResultTable(names, kinds);
+        while (rs.next()) {
+            int row = table.addRow();
+            for (int col = 0; col < numCol; col++) {
+                switch (kinds[col]) {
+                    case INT:
+                        table.setInt(row, col, rs.getInt(col + 1));
+                        break;
+                    case LONG:
+                        table.setLong(row, col, rs.getLong(col + 1));
+                        break;
+                    case DOUBLE:
+                        table.setDouble(row, col, rs.getDouble(col + 1));
+                        break;
+                    case TIMESTAMP:
+                        Timestamp time = rs.getTimestamp(col + 1);
+                        if (time != null)
+                            table.setTimestamp(row, col, time);
+                        break;
+                    case DATE:
+                        Date date = rs.getDate(col + 1);
+                        if (date != null)
+                            table.setTimestampMillis(row, col, date.getTime());
+                        break;
+                    default:
+                        table.setString(row, col, rs.getString(col + 1));
+                        break;
+                }
+                if (rs.wasNull())
+                    table.setNull(row, col);
+            }
+        } // end while
+        return table;
+    }// end fromResultSet
+
+    // maps a java.sql.Types code to a column kind
+    static int kindOf(int sqlType) {
+        switch (sqlType) {
+            case Types.INTEGER:
+            case Types.SMALLINT:
+            case Types.TINYINT:
+                return INT;
+            case Types.BIGINT:
+                return LONG;
+            case Types.DOUBLE:
+            case Types.FLOAT:
+            case Types.REAL:
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return DOUBLE;
+            case Types.TIMESTAMP:
+                return TIMESTAMP;
+            case Types.DATE:
+                return DATE;
+            default:
+                return STRING;
+        }
+    }// end kindOf
+
+    public int rowCount() {
+        return this.rowCount;
+    }
+
+    public int columnCount() {
+        return this.kinds.length;
+    }
+
+    public String columnName(int col) {
+        return this.names[col];
+    }
+
+    public int columnKind(int col) {
+        return this.kinds[col];
+    }
+
+    public Row row(int row) {
+        checkRow(row);
+        return new Row(row);
+    }
+
+    /**
+     * Appends an empty row and returns its index. The values are filled in
+     * with the set methods.
+     *
+     * @return the index of the new row
+     */
+    public int addRow() {
+        if (this.rowCount == this.capacity) {
+            this.capacity *= 2;
+            for (int col = 0; col < this.columns.length; col++) {
+                this.columns[col] = grow(this.columns[col], this.capacity);
+            }
+        }
+        return this.rowCount++;
+    }// end addRow
+
+    /**
+     * Drops every row past the given count.
+     *
+     * @param rows the number of rows to keep
+     */
+    public void truncate(int rows) {
+        if (rows >= this.rowCount)
+            return;
+        for (int col = 0; col < this.columns.length; col++) {
+            if (this.columns[col] instanceof String[])
+                Arrays.fill((String[]) this.columns[col], rows, this.rowCount, null);
+            if (this.nulls[col] != null)
+                this.nulls[col].clear(rows, this.rowCount);
+        }
+        this.rowCount = Math.max(rows, 0);
+    }// end truncate
+
+    /**
+     * Reverses the order of the rows in place.
+     */
+    public void reverseRows() {
+        for (int low = 0, high = this.rowCount - 1; low < high; low++, high--) {
+            for (int col = 0; col < this.columns.length; col++) {
+                Object column = this.columns[col];
+                if (column instanceof int[]) {
+                    int[] values = (int[]) column;
+                    int tmp = values[low];
+                    values[low] = values[high];
+                    values[high] = tmp;
+                } else if (column instanceof long[]) {
+                    long[] values = (long[]) column;
+                    long tmp = values[low];
+                    values[low] = values[high];
+                    values[high] = tmp;
+                } else if (column instanceof double[]) {
+                    double[] values = (double[]) column;
+                    double tmp = values[low];
+                    values[low] = values[high];
+                    values[high] = tmp;
+                } else {
+                    String[] values = (String[]) column;
+                    String tmp = values[low];
+                    values[low] = values[high];
+                    values[high] = tmp;
+                }
+                if (this.nulls[col] != null) {
+                    boolean tmp = this.nulls[col].get(low);
+                    this.nulls[col].set(low, this.nulls[col].get(high));
+                    this.nulls[col].set(high, tmp);
+                }
+            }
+        }
+    }// end reverseRows
+
+    public void setInt(int row, int col, int value) {
+        ((int[]) this.columns[col])[row] = value;
+    }
+
+    public void setLong(int row, int col, long value) {
+        ((long[]) this.columns[col])[row] = value;
+    }
+
+    public void setDouble(int row, int col, double value) {
+        ((double[]) this.columns[col])[row] = value;
+    }
+
+    public void setTimestampMillis(int row, int col, long millis) {
+        ((long[]) this.columns[col])[row] = this.kinds[col] == TIMESTAMP ? millis * 1000 : millis;
+    }
+
+    // keeps the microseconds, which epoch milliseconds would drop
+    public void setTimestamp(int row, int col, Timestamp time) {
+        ((long[]) this.columns[col])[row] = Math.floorDiv(time.getTime(), 1000L) * 1000000L + time.getNanos() / 1000;
+    }
+
+    public void setString(int row, int col, String value) {
+        ((String[]) this.columns[col])[row] = value;
+    }
+
+    public void setNull(int row, int col) {
+        if (this.nulls[col] == null)
+            this.nulls[col] = new BitSet();
+        this.nulls[col].set(row);
+    }
+
+    public boolean isNull(int row, int col) {
+        checkRow(row);
+        return this.nulls[col] != null && this.nulls[col].get(row);
+    }
+
+    public int getInt(int row, int col) {
+        checkRow(row);
+        switch (this.kinds[col]) {
+            case INT:
+                return ((int[]) this.columns[col])[row];
+            case LONG:
+                return (int) ((long[]) this.columns[col])[row];
+            case DOUBLE:
+                return (int) ((double[]) this.columns[col])[row];
+            case STRING:
+                return Integer.parseInt(((String[]) this.columns[col])[row].trim());
+            default:
+                throw new IllegalArgumentException("Column " + this.names[col] + " is not numeric");
+        }
+    }// end getInt
+
+    public long getLong(int row, int col) {
+        checkRow(row);
+        switch (this.kinds[col]) {
+            case INT:
+                return ((int[]) this.columns[col])[row];
+            case LONG:
+            case DATE:
+                return ((long[]) this.columns[col])[row];
+            case TIMESTAMP:
+                return getTimestampMillis(row, col);
+            case DOUBLE:
+                return (long) ((double[]) this.columns[col])[row];
+            default:
+                return Long.parseLong(((String[]) this.columns[col])[row].trim());
+        }
+    }// end getLong
+
+    public double getDouble(int row, int col) {
+        checkRow(row);
+        switch (this.kinds[col]) {
+            case INT:
+                return ((int[]) this.columns[col])[row];
+            case LONG:
+                return ((long[]) this.columns[col])[row];
+            case DOUBLE:
+                return ((double[]) this.columns[col])[row];
+            case STRING:
+                return Double.parseDouble(((String[]) this.columns[col])[row].trim());
+            default:
+                throw new IllegalArgumentException("Column " + this.names[col] + " is not numeric");
+        }
+    }// end getDouble
+
+    // the start of the day for a date column
+    public long getTimestampMillis(int row, int col) {
+        checkRow(row);
+        if (this.kinds[col] != TIMESTAMP && this.kinds[col] != DATE)
+            throw new IllegalArgumentException("Column " + this.names[col] + " is not a timestamp or date");
+        long value = ((long[]) this.columns[col])[row];
+        return this.kinds[col] == TIMESTAMP ? Math.floorDiv(value, 1000L) : value;
+    }
+
+    // returns null for a null value; a timestamp keeps its microseconds
+    public Timestamp getTimestamp(int row, int col) {
+        if (isNull(row, col))
+            return null;
+        if (this.kinds[col] != TIMESTAMP)
+            return new Timestamp(getTimestampMillis(row, col));
+        long micros = ((long[]) this.columns[col])[row];
+        Timestamp time = new Timestamp(Math.floorDiv(micros, 1000000L) * 1000);
+        time.setNanos((int) Math.floorMod(micros, 1000000L) * 1000);
+        return time;
+    }
+
+    // returns any column as text, or null for a null value
+    public String getString(int row, int col) {
+        if (isNull(row, col))
+            return null;
+        switch (this.kinds[col]) {
+            case INT:
+                return String.valueOf(((int[]) this.columns[col])[row]);
+            case LONG:
+                return String.valueOf(((long[]) this.columns[col])[row]);
+            case DOUBLE:
+                return String.valueOf(((double[]) this.columns[col])[row]);
+            case TIMESTAMP:
+                return format(getTimestamp(row, col));
+            case DATE:
+                return new Date(((long[]) this.columns[col])[row]).toString();
+            default:
+                return ((String[]) this.columns[col])[row];
+        }
+    }// end getString
+
+    // a timestamp as text, without the ".0" Timestamp.toString adds to whole seconds
+    static String format(Timestamp time) {
+        String text = time.toString();
+        return time.getNanos() == 0 ? text.substring(0, text.length() - 2) : text;
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= this.rowCount)
+            throw new IndexOutOfBoundsException("Row " + row + " of " + this.rowCount);
+    }
+
+    private static Object allocate(int kind, int capacity) {
+        switch (kind) {
+            case INT:
+                return new int[capacity];
+            case LONG:
+            case TIMESTAMP:
+            case DATE:
+                return new long[capacity];
+            case DOUBLE:
+                return new double[capacity];
+            default:
+                return new String[capacity];
+        }
+    }
+
+    private static Object grow(Object column, int capacity) {
+        if (column instanceof int[])
+            return Arrays.copyOf((int[]) column, capacity);
+        if (column instanceof long[])
+            return Arrays.copyOf((long[]) column, capacity);
+        if (column instanceof double[])
+            return Arrays.copyOf((double[]) column, capacity);
+        return Arrays.copyOf((String[]) column, capacity);
+    }
+
+}// end ResultTable
@@ -0,0 +1,19 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streamed query one at a time. The
+ * result set is positioned on the current row and must not be advanced or
+ * kept after the call returns.
+ *
+ */
+public interface RowHandler {
+
+    // called once before the first row, also when there are no rows
+    default void begin(ResultSetMetaData rsmd) throws SQLException {
+    }
+
+    void handleRow(ResultSet rs) throws SQLException;
+
+}// end RowHandler
@@ -0,0 +1,124 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * This class holds what the operations need to know about the logged in user:
+ * the profile, coordinates, role and, for managers, the IDs of the stores
+ * they run. It is read with one query at login, so the operations no longer
+ * look up the user's location or managed stores on every call.
+ *
+ * A session is stale once the application has added stores or reloaded the
+ * store index since the session was read; refresh reads it again.
+ *
+ */
+public class Session {
+
+    private final int userID;
+    private final String name;
+    private final String type;
+    private final double latitude;
+    private final double longitude;
+
+    // sorted, empty unless the user manages stores
+    private final int[] managedStores;
+
+    // the Amazon store version this session was read at
+    private final long storeVersion;
+
+    private Session(ResultTable rows, long storeVersion) {
+        this.userID = rows.getInt(0, 0);
+        this.name = rows.getString(0, 1).trim();
+        this.latitude = rows.getDouble(0, 2);
+        this.longitude = rows.getDouble(0, 3);
+        this.type = rows.getString(0, 4).trim();
+        this.storeVersion = storeVersion;
+
+        int[] stores = new int[rows.rowCount()];
+        int count = 0;
+        for (int row = 0; row < rows.rowCount() && rows.getInt(row, 0) == this.userID; row++) {
+            if (!rows.isNull(row, 5))
+                stores[count++] = rows.getInt(row, 5);
+        }
+        this.managedStores = Arrays.copyOf(stores, count);
+    }// end Session
+
+    /**
+     * Checks log in credentials and reads the session of the user.
+     *
+     * @param esql     the application
+     * @param name     the user name
+     * @param password the password
+     * @return the session, or null if no user has that name and password
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public static Session login(Amazon esql, String name, String password) throws SQLException {
+        long version = esql.getStoreVersion();
+        ResultTable rows = esql.executeQueryAndReturnTable(Amazon.LOGIN_SQL, name, password);
+        return rows.rowCount() == 0 ? null : new Session(rows, version);
+    }// end login
+
+    /**
+     * Reads the session of a user.
+     *
+     * @param esql   the application
+     * @param userID the user
+     * @return the session, or null if there is no such user
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public static Session load(Amazon esql, int userID) throws SQLException {
+        long version = esql.getStoreVersion();
+        ResultTable rows = esql.executeQueryAndReturnTable(Amazon.SESSION_SQL, userID);
+        return rows.rowCount() == 0 ? null : new Session(rows, version);
+    }// end load
+
+    // true when the managed stores may have changed since this session was read
+    public boolean isStale(Amazon esql) {
+        return esql.getStoreVersion() != this.storeVersion;
+    }
+
+    /**
+     * Reads this user's session again.
+     *
+     * @param esql the application
+     * @return the new session, or this one if the user no longer exists
+     * @throws java.sql.SQLException when failed to execute the query
+     */
+    public Session refresh(Amazon esql) throws SQLException {
+        Session fresh = load(esql, this.userID);
+        return fresh == null ? this : fresh;
+    }
+
+    public int getUserID() {
+        return this.userID;
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public String getType() {
+        return this.type;
+    }
+
+    public boolean isManager() {
+        return this.type.equals("manager");
+    }
+
+    public double getLatitude() {
+        return this.latitude;
+    }
+
+    public double getLongitude() {
+        return this.longitude;
+    }
+
+    // the IDs of the stores this user manages, in ascending order
+    public int[] getManagedStores() {
+        return this.managedStores.clone();
+    }
+
+    public boolean manages(int storeID) {
+        return Arrays.binarySearch(this.managedStores, storeID) >= 0;
+    }
+
+}// end Session
@@ -0,0 +1,382 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class defines an in-memory uniform grid over points identified by an
+ * integer ID, such as stores or warehouses. Coordinates are kept in primitive
+ * arrays and each grid cell holds the indexes of the points inside it, so a
+ * radius or nearest-neighbour query only looks at the cells around the query
+ * point instead of every point. Distances use the same euclidean formula as
+ * Amazon.calculateDistance.
+ *
+ * The index is safe to query from many threads; adds take a write lock.
+ *
+ */
+public class SpatialIndex {
+
+    // average number of points per cell the grid is sized for
+    private static final int TARGET_POINTS_PER_CELL = 4;
+
+    // smallest grid the index builds, in cells per side
+    private static final int MIN_CELLS_PER_SIDE = 4;
+
+    // largest grid the index builds, in cells per side
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // point storage, indexed by insertion order
+    private int size = 0;
+    private int[] ids = new int[16];
+    private double[] lats = new double[16];
+    private double[] longs = new double[16];
+    private final HashMap<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+    // grid layout, rebuilt as the point set grows
+    private double minLat, minLong, cellSize;
+    private int cellsPerSide = 0;
+    private int[][] cells;
+    private int[] cellCounts;
+    private int builtForSize = 0;
+
+    /**
+     * The points returned by a query, closest first.
+     */
+    public static class Result {
+        public final int size;
+        public final int[] ids;
+        public final double[] distances;
+
+        Result(int size, int[] ids, double[] distances) {
+            this.size = size;
+            this.ids = ids;
+            this.distances = distances;
+        }
+    }// end Result
+
+    /**
+     * Adds a point to the index, or moves it if the ID is already indexed.
+     *
+     * @param id   the point ID
+     * @param lat  the latitude of the point
+     * @param lon  the longitude of the point
+     */
+    public void add(int id, double lat, double lon) {
+        this.lock.writeLock().lock();
+        try {
+            Integer existing = this.positions.get(id);
+            if (existing != null) {
+                // moving a point is rare enough that a rebuild is fine
+                this.lats[existing] = lat;
+                this.longs[existing] = lon;
+                rebuild();
+                return;
+            }
+
+            if (this.size == this.ids.length) {
+                int capacity = this.size * 2;
+                this.ids = Arrays.copyOf(this.ids, capacity);
+                this.lats = Arrays.copyOf(this.lats, capacity);
+                this.longs = Arrays.copyOf(this.longs, capacity);
+            }
+            int p = this.size++;
+            this.ids[p] = id;
+            this.lats[p] = lat;
+            this.longs[p] = lon;
+            this.positions.put(id, p);
+
+            if (this.cellsPerSide == 0 || this.size > this.builtForSize * 2 || !inBounds(lat, lon))
+                rebuild();
+            else
+                addToCell(cellIndex(lat, lon), p);
+        } finally {
+            this.lock.writeLock().unlock();
+        }
+    }// end add
+
+    // number of indexed points
+    public int size() {
+        this.lock.readLock().lock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the distance from a location to an indexed point.
+     *
+     * @param id   the point ID
+     * @param lat  the latitude of the location
+     * @param lon  the longitude of the location
+     * @return the distance, or NaN if the ID is not indexed
+     */
+    public double distanceTo(int id, double lat, double lon) {
+        this.lock.readLock().lock();
+        try {
+            Integer p = this.positions.get(id);
+            if (p == null)
+                return Double.NaN;
+            return Math.sqrt(distanceSq(p, lat, lon));
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }// end distanceTo
+
+    /**
+     * Finds every point within a radius of a location.
+     *
+     * @param lat    the latitude of the location
+     * @param lon    the longitude of the location
+     * @param radius the maximum distance, inclusive
+     * @return the matching points, closest first
+     */
+    public Result within(double lat, double lon, double radius) {
+        this.lock.readLock().lock();
+        try {
+            int found = 0;
+            int[] hits = new int[16];
+            double[] dists = new double[16];
+            if (this.size > 0) {
+                double radiusSq = radius * radius;
+                int row0 = clampCell((lat - radius - this.minLat) / this.cellSize);
+                int row1 = clampCell((lat + radius - this.minLat) / this.cellSize);
+                int col0 = clampCell((lon - radius - this.minLong) / this.cellSize);
+                int col1 = clampCell((lon + radius - this.minLong) / this.cellSize);
+                for (int row = row0; row <= row1; row++) {
+                    for (int col = col0; col <= col1; col++) {
+                        int c = row * this.cellsPerSide + col;
+                        int[] members = this.cells[c];
+                        for (int i = 0; i < this.cellCounts[c]; i++) {
+                            double d = distanceSq(members[i], lat, lon);
+                            if (d <= radiusSq) {
+                                if (found == hits.length) {
+                                    hits = Arrays.copyOf(hits, found * 2);
+                                    dists = Arrays.copyOf(dists, found * 2);
+                                }
+                                hits[found] = this.ids[members[i]];
+                                dists[found] = d;
+                                found++;
+                            }
+                        }
+                    }
+                }
+            }
+            return sorted(found, hits, dists);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }// end within
+
+    /**
+     * Finds the k points closest to a location.
+     *
+     * @param lat the latitude of the location
+     * @param lon the longitude of the location
+     * @param k   the number of points to return
+     * @return up to k points, closest first
+     */
+    public Result nearest(double lat, double lon, int k) {
+        this.lock.readLock().lock();
+        try {
+            // bounded max-heap on squared distance, worst candidate at the root
+            int[] heapIds = new int[Math.max(k, 1)];
+            double[] heapDists = new double[Math.max(k, 1)];
+            int found = 0;
+
+            if (this.size > 0 && k > 0) {
+                int centerRow = clampCell((lat - this.minLat) / this.cellSize);
+                int centerCol = clampCell((lon - this.minLong) / this.cellSize);
+                for (int ring = 0; ring < this.cellsPerSide; ring++) {
+                    // every cell in this ring is at least this far from the location
+                    if (found == k && ring > 0) {
+                        double reach = (ring - 1) * this.cellSize;
+                        if (reach * reach > heapDists[0])
+                            break;
+                    }
+                    for (int row = centerRow - ring; row <= centerRow + ring; row++) {
+                        if (row < 0 || row >= this.cellsPerSide)
+                            continue;
+                        boolean edgeRow = row == centerRow - ring || row == centerRow + ring;
+                        int step = edgeRow ? 1 : 2 * ring;
+                        for (int col = centerCol - ring; col <= centerCol + ring; col += Math.max(step, 1)) {
+                            if (col < 0 || col >= this.cellsPerSide)
+                                continue;
+                            int c = row * this.cellsPerSide + col;
+                            int[] members = this.cells[c];
+                            for (int i = 0; i < this.cellCounts[c]; i++) {
+                                double d = distanceSq(members[i], lat, lon);
+                                if (found < k) {
+                                    heapIds[found] = this.ids[members[i]];
+                                    heapDists[found] = d;
+                                    siftUp(heapIds, heapDists, found++);
+                                } else if (d < heapDists[0]) {
+                                    heapIds[0] = this.ids[members[i]];
+                                    heapDists[0] = d;
+                                    siftDown(heapIds, heapDists, found);
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            return sorted(found, heapIds, heapDists);
+        } finally {
+            this.lock.readLock().unlock();
+        }
+    }// end nearest
+
+    private double distanceSq(int p, double lat, double lon) {
+        double t1 = (this.lats[p] - lat) * (this.lats[p] - lat);
+        double t2 = (this.longs[p] - lon) * (this.longs[p] - lon);
+        return t1 + t2;
+    }
+
+    private boolean inBounds(double lat, double lon) {
+        double extent = this.cellSize * this.cellsPerSide;
+        return lat >= this.minLat && lat < this.minLat + extent
+                && lon >= this.minLong && lon < this.minLong + extent;
+    }
+
+    private int clampCell(double cell) {
+        if (cell < 0)
+            return 0;
+        if (cell >= this.cellsPerSide)
+            return this.cellsPerSide - 1;
+        return (int) cell;
+    }
+
+    private int cellIndex(double lat, double lon) {
+        return clampCell((lat - this.minLat) / this.cellSize) * this.cellsPerSide
+                + clampCell((lon - this.minLong) / this.cellSize);
+    }
+
+    private void addToCell(int c, int p) {
+        if (this.cells[c] == null)
+            this.cells[c] = new int[TARGET_POINTS_PER_CELL];
+        else if (this.cellCounts[c] == this.cells[c].length)
+            this.cells[c] = Arrays.copyOf(this.cells[c], this.cellCounts[c] * 2);
+        this.cells[c][this.cellCounts[c]++] = p;
+    }
+
+    // sizes the grid to the current bounding box and point count and refills it
+    private void rebuild() {
+        double maxLat = this.lats[0], maxLong = this.longs[0];
+        this.minLat = this.lats[0];
+        this.minLong = this.longs[0];
+        for (int p = 1; p < this.size; p++) {
+            this.minLat = Math.min(this.minLat, this.lats[p]);
+            this.minLong = Math.min(this.minLong, this.longs[p]);
+            maxLat = Math.max(maxLat, this.lats[p]);
+            maxLong = Math.max(maxLong, this.longs[p]);
+        }
+
+        int side = (int) Math.ceil(Math.sqrt((double) this.size / TARGET_POINTS_PER_CELL));
+        this.cellsPerSide = Math.max(MIN_CELLS_PER_SIDE, Math.min(MAX_CELLS_PER_SIDE, side));
+        double extent = Math.max(maxLat - this.minLat, maxLong - this.minLong);
+        // pad the grid so points added near the edges do not force a rebuild
+        this.cellSize = Math.max(extent * 1.25, 1.0) / this.cellsPerSide;
+        this.minLat -= extent * 0.125;
+        this.minLong -= extent * 0.125;
+
+        this.cells = new int[this.cellsPerSide * this.cellsPerSide][];
+        this.cellCounts = new int[this.cellsPerSide * this.cellsPerSide];
+        for (int p = 0; p < this.size; p++) {
+            addToCell(cellIndex(this.lats[p], this.longs[p]), p);
+        }
+        this.builtForSize = this.size;
+    }// end rebuild
+
+    // turns squared distances into distances and orders the points closest first
+    private static Result sorted(int found, int[] hits, double[] distsSq) {
+        sort(hits, distsSq, 0, found - 1);
+
+        int[] ids = Arrays.copyOf(hits, found);
+        double[] distances = new double[found];
+        for (int i = 0; i < found; i++) {
+            distances[i] = Math.sqrt(distsSq[i]);
+        }
+        return new Result(found, ids, distances);
+    }// end sorted
+
+    // quicksorts both arrays in place by distance, from index low to high inclusive
+    private static void sort(int[] ids, double[] dists, int low, int high) {
+        while (high - low > 16) {
+            // median of three as the pivot, left at high - 1
+            int mid = (low + high) >>> 1;
+            if (dists[mid] < dists[low])
+                swap(ids, dists, mid, low);
+            if (dists[high] < dists[low])
+                swap(ids, dists, high, low);
+            if (dists[high] < dists[mid])
+                swap(ids, dists, high, mid);
+            swap(ids, dists, mid, high - 1);
+            double pivot = dists[high - 1];
+
+            int i = low, j = high - 1;
+            while (true) {
+                while (dists[++i] < pivot) {
+                }
+                while (dists[--j] > pivot) {
+                }
+                if (i >= j)
+                    break;
+                swap(ids, dists, i, j);
+            }
+            swap(ids, dists, i, high - 1);
+
+            // recurse into the smaller side to bound the stack depth
+            if (i - low < high - i) {
+                sort(ids, dists, low, i - 1);
+                low = i + 1;
+            } else {
+                sort(ids, dists, i + 1, high);
+                high = i - 1;
+            }
+        }
+
+        // insertion sort for short ranges
+        for (int i = low + 1; i <= high; i++) {
+            for (int j = i; j > low && dists[j] < dists[j - 1]; j--) {
+                swap(ids, dists, j, j - 1);
+            }
+        }
+    }// end sort
+
+    private static void siftUp(int[] ids, double[] dists, int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (dists[parent] >= dists[i])
+                break;
+            swap(ids, dists, i, parent);
+            i = parent;
+        }
+    }
+
+    private static void siftDown(int[] ids, double[] dists, int n) {
+        int i = 0;
+        while (true) {
+            int left = 2 * i + 1, right = left + 1, largest = i;
+            if (left < n && dists[left] > dists[largest])
+                largest = left;
+            if (right < n && dists[right] > dists[largest])
+                largest = right;
+            if (largest == i)
+                return;
+            swap(ids, dists, i, largest);
+            i = largest;
+        }
+    }
+
+    private static void swap(int[] ids, double[] dists, int a, int b) {
+        int id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+        double d = dists[a];
+        dists[a] = dists[b];
+        dists[b] = d;
+    }
+
+}// end SpatialIndex
@@ -0,0 +1,115 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class keeps one PreparedStatement per SQL template for a single
+ * physical connection. Statements are reused across calls so the driver does
+ * not have to build a new statement every time. The reuse is client side
+ * only: the bundled driver sends every statement as text with the values
+ * inlined, because it only prepares on the server for PostgreSQL versions
+ * before 10, and the schema needs 11. Newer drivers prepare a statement
+ * reused this way on the server by themselves.
+ *
+ * Drivers that prepare on the server type string parameters as text or
+ * varchar. Compared with a text
+ * parameter, a char(n) column is cast to text and its indexes cannot be
+ * used, so templates compare char columns with ?::bpchar instead of ?.
+ *
+ */
+public class StatementCache {
+
+    // maximum number of templates kept open on one connection
+    public static final int DEFAULT_MAX_STATEMENTS = 64;
+
+    private final Connection _connection;
+    private final int maxStatements;
+    private final LinkedHashMap<String, PreparedStatement> statements;
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_STATEMENTS);
+    }
+
+    /**
+     * Creates a statement cache for the given connection
+     *
+     * @param connection    the physical connection the statements belong to
+     * @param maxStatements maximum number of cached templates
+     */
+    public StatementCache(Connection connection, int maxStatements) {
+        this._connection = connection;
+        this.maxStatements = maxStatements;
+        // access ordered so the least recently used template is evicted first
+        this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() > StatementCache.this.maxStatements) {
+                    closeQuietly(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }// end StatementCache
+
+    /**
+     * Returns the cached statement for a SQL template with the given values
+     * bound to its '?' placeholders, in order.
+     *
+     * @param sql    the SQL template
+     * @param params the values for the placeholders
+     * @return a ready to execute statement
+     * @throws java.sql.SQLException when the statement could not be prepared
+     */
+    public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+        PreparedStatement stmt = this.statements.get(sql);
+        if (stmt == null) {
+            stmt = this._connection.prepareStatement(sql);
+            this.statements.put(sql, stmt);
+        }
+
+        stmt.clearParameters();
+        bind(stmt, params);
+        return stmt;
+    }// end prepare
+
+    /**
+     * Binds the values to the placeholders of a statement, in order.
+     *
+     * @param stmt   the statement to bind
+     * @param params the values for the placeholders
+     * @throws java.sql.SQLException when a value could not be bound
+     */
+    public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null)
+                stmt.setNull(i + 1, Types.VARCHAR);
+            else
+                stmt.setObject(i + 1, params[i]);
+        }
+    }// end bind
+
+    /**
+     * Closes every cached statement. The connection itself is left open.
+     */
+    public void close() {
+        Iterator<PreparedStatement> it = this.statements.values().iterator();
+        while (it.hasNext()) {
+            closeQuietly(it.next());
+            it.remove();
+        }
+    }// end close
+
+    private static void closeQuietly(PreparedStatement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // ignored.
+        }
+    }
+
+}// end StatementCache
@@ -0,0 +1,233 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * This class runs the writes of one operation as a single transaction on one
+ * pooled connection, so they are committed together or not at all, with one
+ * commit instead of one per statement.
+ *
+ * Statements given to batch are not sent right away: consecutive ones with
+ * the same template are collected into one JDBC batch, which is sent when a
+ * different statement is run and at the latest just before the commit.
+ * Statements whose result the work needs, through update or query, are sent
+ * immediately, after any pending batch. The bundled driver sends a batch one
+ * statement at a time, so batching reuses the prepared statement but does not
+ * save round trips; what the unit of work saves is a commit per statement.
+ *
+ * When the transaction fails with a serialization failure or a deadlock the
+ * work is rolled back and run again from the start, up to maxAttempts times,
+ * so a Work must not have side effects outside the database other than
+ * through invalidate. Cached product lists passed to invalidate are dropped
+ * only once the transaction commits.
+ *
+ */
+public class UnitOfWork {
+
+    public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+    // retries wait attempt * RETRY_BACKOFF_MILLIS, give or take half, so
+    // transactions that collided do not collide again
+    private static final long RETRY_BACKOFF_MILLIS = 20;
+
+    // SQLSTATEs of transactions that failed only because of concurrent ones
+    private static final String SERIALIZATION_FAILURE = "40001";
+    private static final String DEADLOCK_DETECTED = "40P01";
+
+    private static final Random random = new Random();
+
+    /**
+     * The statements of a unit of work. May be run more than once.
+     */
+    public interface Work<T> {
+        T run(UnitOfWork work) throws SQLException;
+    }
+
+    private final Amazon esql;
+    private final ConnectionPool.PooledConnection conn;
+
+    // the statement whose batch has not been sent yet
+    private PreparedStatement pending = null;
+    private String pendingSql = null;
+
+    // stores whose cached product lists the commit makes stale
+    private final TreeSet<Integer> stores = new TreeSet<Integer>();
+
+    private UnitOfWork(Amazon esql, ConnectionPool.PooledConnection conn) {
+        this.esql = esql;
+        this.conn = conn;
+    }
+
+    /**
+     * Runs work in one transaction, retrying it up to DEFAULT_MAX_ATTEMPTS
+     * times on serialization failures and deadlocks.
+     *
+     * @param esql the application whose connection pool is used
+     * @param work the statements to run
+     * @return what the work returned in the attempt that committed
+     * @throws java.sql.SQLException when the work failed; nothing is written then
+     */
+    public static <T> T run(Amazon esql, Work<T> work) throws SQLException {
+        return run(esql, DEFAULT_MAX_ATTEMPTS, work);
+    }
+
+    /**
+     * Runs work in one transaction, retrying it on serialization failures
+     * and deadlocks.
+     *
+     * @param esql        the application whose connection pool is used
+     * @param maxAttempts the most times the work is run
+     * @param work        the statements to run
+     * @return what the work returned in the attempt that committed
+     * @throws java.sql.SQLException when the work failed; nothing is written then
+     */
+    public static <T> T run(Amazon esql, int maxAttempts, Work<T> work) throws SQLException {
+        // the pool rolls back and restores autocommit when the connection goes back
+        try (ConnectionPool.PooledConnection conn = esql.getConnection()) {
+            conn.getConnection().setAutoCommit(false);
+            for (int attempt = 1;; attempt++) {
+                UnitOfWork unit = new UnitOfWork(esql, conn);
+                try {
+                    T result = work.run(unit);
+                    unit.flush();
+                    conn.getConnection().commit();
+                    for (int storeID : unit.stores) {
+                        esql.getCatalogCache().invalidate(storeID);
+                    }
+                    return result;
+                } catch (SQLException e) {
+                    conn.getConnection().rollback();
+                    if (attempt >= maxAttempts || !isRetryable(e))
+                        throw e;
+                    backOff(attempt, e);
+                } finally {
+                    unit.discard();
+                }
+            }
+        }
+    }// end run
+
+    /**
+     * Runs a statement now and returns the number of rows it changed.
+     *
+     * @param sql    the SQL template
+     * @param params the values for the placeholders
+     * @return the number of rows affected
+     * @throws java.sql.SQLException when the statement failed
+     */
+    public int update(String sql, Object... params) throws SQLException {
+        flush();
+        QueryMetrics.Query timer = this.esql.getMetrics().start(sql, params);
+        try {
+            return timer.done(this.conn.prepare(sql, params).executeUpdate());
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
+    }// end update
+
+    /**
+     * Runs a query now and returns its rows.
+     *
+     * @param sql    the SQL template
+     * @param params the values for the placeholders
+     * @return the rows
+     * @throws java.sql.SQLException when the query failed
+     */
+    public ResultTable query(String sql, Object... params) throws SQLException {
+        flush();
+        QueryMetrics.Query timer = this.esql.getMetrics().start(sql, params);
+        try {
+            ResultSet rs = this.conn.prepare(sql, params).executeQuery();
+            ResultTable result = ResultTable.fromResultSet(rs);
+            rs.close();
+            timer.done(result.rowCount());
+            return result;
+        } catch (SQLException e) {
+            throw timer.failed(e);
+        }
+    }// end query
+
+    /**
+     * Adds a statement to the current batch, sending the batch first if it
+     * holds a different template.
+     *
+     * @param sql    the SQL template
+     * @param params the values for the placeholders
+     * @throws java.sql.SQLException when the statement could not be prepared or an earlier batch failed
+     */
+    public void batch(String sql, Object... params) throws SQLException {
+        if (this.pending != null && !this.pendingSql.equals(sql))
+            flush();
+        if (this.pending == null) {
+            this.pending = this.conn.prepare(sql);
+            this.pendingSql = sql;
+        }
+        StatementCache.bind(this.pending, params);
+        this.pending.addBatch();
+    }// end batch
+
+    /**
+     * Marks a store whose cached product list is dropped when this unit of
+     * work commits.
+     *
+     * @param storeID the store written to
+     */
+    public void invalidate(int storeID) {
+        this.stores.add(storeID);
+    }
+
+    // sends the pending batch, if any
+    private void flush() throws SQLException {
+        if (this.pending == null)
+            return;
+        PreparedStatement stmt = this.pending;
+        QueryMetrics.Query timer = this.esql.getMetrics().start(this.pendingSql);
+        this.pending = null;
+        this.pendingSql = null;
+        try {
+            int rows = 0;
+            for (int count : stmt.executeBatch()) {
+                if (count > 0)
+                    rows += count;
+            }
+            timer.done(rows);
+        } catch (SQLException e) {
+            stmt.clearBatch();
+            throw timer.failed(e);
+        }
+    }// end flush
+
+    // drops a batch the work never got to send, so the cached statement
+    // does not carry it into the next use of the connection
+    private void discard() throws SQLException {
+        if (this.pending != null)
+            this.pending.clearBatch();
+        this.pending = null;
+        this.pendingSql = null;
+    }
+
+    // serialization failures and deadlocks, also when reported as the cause of a batch failure
+    static boolean isRetryable(SQLException e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            for (SQLException s = t instanceof SQLException ? (SQLException) t : null; s != null;
+                    s = s.getNextException()) {
+                if (SERIALIZATION_FAILURE.equals(s.getSQLState()) || DEADLOCK_DETECTED.equals(s.getSQLState()))
+                    return true;
+            }
+        }
+        return false;
+    }// end isRetryable
+
+    private static void backOff(int attempt, SQLException e) throws SQLException {
+        long millis = (long) (attempt * RETRY_BACKOFF_MILLIS * (0.5 + random.nextDouble()));
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }// end backOff
+
+}// end UnitOfWork
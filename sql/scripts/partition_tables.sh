@@ -0,0 +1,6 @@
+#!/bin/bash
+# partition Orders and ProductUpdates of a database created before they were
+# partitioned, keeping their rows
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/create_functions.sql
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" < $DIR/../src/partition_tables.sql
@@ -0,0 +1,3 @@
+#!/bin/bash
+# recompute the popularity rollups from the full order history
+cs166_psql -p $PGPORT $USER"_project_phase_3_DB" -c "SELECT rebuild_rollups();"
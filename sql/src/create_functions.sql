@@ -0,0 +1,226 @@
+-- Places one order in a single round trip. The distance check, the stock
+-- check, the stock decrement and the Orders insert all run in the caller's
+-- statement, so concurrent buyers of the same product can never oversell:
+-- the conditional UPDATE locks the Product row and only succeeds while
+-- enough units are left.
+--
+-- Returns the new orderNumber, or a negative result code:
+--   -1 unknown customer      -4 product not sold at the store
+--   -2 unknown store         -5 not enough units in stock
+--   -3 store too far away    -6 units ordered must be positive
+--
+-- p_productName has the type of Product.productName, so the stock lookups
+-- compare char with char and use the primary key.
+DROP FUNCTION IF EXISTS place_order(integer, integer, text, integer, double precision);
+CREATE OR REPLACE FUNCTION place_order(p_customerID integer,
+                                       p_storeID integer,
+                                       p_productName char(30),
+                                       p_units integer,
+                                       p_maxDistance double precision)
+RETURNS integer AS $$
+DECLARE
+    v_userLat double precision;
+    v_userLong double precision;
+    v_storeLat double precision;
+    v_storeLong double precision;
+    v_orderNumber integer;
+BEGIN
+    IF p_units <= 0 THEN
+        RETURN -6;
+    END IF;
+
+    SELECT latitude, longitude INTO v_userLat, v_userLong
+      FROM Users WHERE userID = p_customerID;
+    IF NOT FOUND THEN
+        RETURN -1;
+    END IF;
+
+    SELECT latitude, longitude INTO v_storeLat, v_storeLong
+      FROM Store WHERE storeID = p_storeID;
+    IF NOT FOUND THEN
+        RETURN -2;
+    END IF;
+
+    IF sqrt((v_userLat - v_storeLat) ^ 2 + (v_userLong - v_storeLong) ^ 2) > p_maxDistance THEN
+        RETURN -3;
+    END IF;
+
+    UPDATE Product SET numberOfUnits = numberOfUnits - p_units
+     WHERE storeID = p_storeID AND productName = p_productName AND numberOfUnits >= p_units;
+    IF NOT FOUND THEN
+        IF EXISTS (SELECT 1 FROM Product WHERE storeID = p_storeID AND productName = p_productName) THEN
+            RETURN -5;
+        END IF;
+        RETURN -4;
+    END IF;
+
+    INSERT INTO Orders (customerID, storeID, productName, unitsOrdered, orderTime)
+    VALUES (p_customerID, p_storeID, p_productName, p_units, LOCALTIMESTAMP)
+    RETURNING orderNumber INTO v_orderNumber;
+
+    RETURN v_orderNumber;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Keeps StoreProductSales and StoreCustomerOrders in step with Orders. Every
+-- path that writes Orders (place_order, bulk ingestion, COPY) goes through it.
+-- Only create_month_partition skips it, through amazon.skip_rollup, while it
+-- moves rows between partitions.
+CREATE OR REPLACE FUNCTION orders_rollup() RETURNS trigger AS $$
+BEGIN
+    IF current_setting('amazon.skip_rollup', true) = 'on' THEN
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP IN ('UPDATE', 'DELETE') THEN
+        UPDATE StoreProductSales SET totalUnits = totalUnits - OLD.unitsOrdered
+         WHERE storeID = OLD.storeID AND productName = OLD.productName;
+        UPDATE StoreCustomerOrders SET orderCount = orderCount - 1
+         WHERE storeID = OLD.storeID AND customerID = OLD.customerID;
+    END IF;
+
+    IF TG_OP IN ('INSERT', 'UPDATE') THEN
+        INSERT INTO StoreProductSales (storeID, productName, totalUnits)
+        VALUES (NEW.storeID, NEW.productName, NEW.unitsOrdered)
+        ON CONFLICT (storeID, productName)
+        DO UPDATE SET totalUnits = StoreProductSales.totalUnits + EXCLUDED.totalUnits;
+
+        INSERT INTO StoreCustomerOrders (storeID, customerID, orderCount)
+        VALUES (NEW.storeID, NEW.customerID, 1)
+        ON CONFLICT (storeID, customerID)
+        DO UPDATE SET orderCount = StoreCustomerOrders.orderCount + 1;
+    END IF;
+
+    RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+DROP TRIGGER IF EXISTS orders_rollup ON Orders;
+CREATE TRIGGER orders_rollup AFTER INSERT OR UPDATE OR DELETE ON Orders
+    FOR EACH ROW EXECUTE PROCEDURE orders_rollup();
+
+-- Recomputes both rollups from the full order history, for backfills and
+-- after loading Orders with the trigger disabled. Partitions detached by
+-- archive_partitions are not part of the history any more, so a rebuild
+-- drops their orders from the rollups, which otherwise keep counting them.
+CREATE OR REPLACE FUNCTION rebuild_rollups() RETURNS void AS $$
+BEGIN
+    LOCK TABLE Orders IN SHARE MODE;
+    TRUNCATE StoreProductSales, StoreCustomerOrders;
+
+    INSERT INTO StoreProductSales (storeID, productName, totalUnits)
+    SELECT storeID, productName, SUM(unitsOrdered) FROM Orders GROUP BY storeID, productName;
+
+    INSERT INTO StoreCustomerOrders (storeID, customerID, orderCount)
+    SELECT storeID, customerID, COUNT(*) FROM Orders GROUP BY storeID, customerID;
+END;
+$$ LANGUAGE plpgsql;
+
+-- The column Orders and ProductUpdates are partitioned on.
+CREATE OR REPLACE FUNCTION partition_column(p_table text) RETURNS text AS $$
+BEGIN
+    CASE lower(p_table)
+        WHEN 'orders' THEN RETURN 'ordertime';
+        WHEN 'productupdates' THEN RETURN 'updatedon';
+        ELSE RAISE EXCEPTION '% is not partitioned by month', p_table;
+    END CASE;
+END;
+$$ LANGUAGE plpgsql IMMUTABLE;
+
+-- Creates the partition of Orders or ProductUpdates holding one month, named
+-- like orders_2016_09, and moves that month's rows out of the default
+-- partition into it. The moved rows are already counted by the rollups, so
+-- the trigger is skipped while they move.
+--
+-- Returns false if the partition already exists.
+CREATE OR REPLACE FUNCTION create_month_partition(p_table text, p_month date)
+RETURNS boolean AS $$
+DECLARE
+    v_parent text := lower(p_table);
+    v_column text := partition_column(p_table);
+    v_from date := date_trunc('month', p_month)::date;
+    v_to date := (date_trunc('month', p_month) + interval '1 month')::date;
+    v_name text := lower(p_table) || '_' || to_char(p_month, 'YYYY_MM');
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+                WHERE c.relname = v_name AND i.inhparent = v_parent::regclass) THEN
+        RETURN false;
+    END IF;
+    IF to_regclass(v_name) IS NOT NULL THEN
+        -- a detached archive keeps its name until it is dropped or renamed
+        RAISE WARNING 'table % exists but is not a partition of %, skipped', v_name, v_parent;
+        RETURN false;
+    END IF;
+
+    EXECUTE format('CREATE TABLE %I (LIKE %I INCLUDING DEFAULTS INCLUDING CONSTRAINTS)', v_name, v_parent);
+
+    PERFORM set_config('amazon.skip_rollup', 'on', true);
+    EXECUTE format('WITH moved AS (DELETE FROM %I WHERE %I >= %L AND %I < %L RETURNING *) '
+                   'INSERT INTO %I SELECT * FROM moved',
+                   v_parent || '_default', v_column, v_from, v_column, v_to, v_name);
+    PERFORM set_config('amazon.skip_rollup', 'off', true);
+
+    -- lets ATTACH skip validating the rows of the new partition
+    EXECUTE format('ALTER TABLE %I ADD CONSTRAINT %I CHECK (%I >= %L AND %I < %L)',
+                   v_name, v_name || '_range', v_column, v_from, v_column, v_to);
+    EXECUTE format('ALTER TABLE %I ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                   v_parent, v_name, v_from, v_to);
+    EXECUTE format('ALTER TABLE %I DROP CONSTRAINT %I', v_name, v_name || '_range');
+    RETURN true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Creates the monthly partitions of Orders and ProductUpdates for every
+-- month with rows in the default partitions, and for the current month and
+-- p_monthsAhead months after it, so new rows land in their own month.
+-- Meant to run regularly; the AmazonServer runs it daily.
+--
+-- Returns the number of partitions created.
+CREATE OR REPLACE FUNCTION partition_maintenance(p_monthsAhead integer) RETURNS integer AS $$
+DECLARE
+    v_table text;
+    v_month date;
+    v_created integer := 0;
+BEGIN
+    FOREACH v_table IN ARRAY ARRAY['orders', 'productupdates'] LOOP
+        FOR v_month IN
+            EXECUTE format('SELECT DISTINCT date_trunc(''month'', %I)::date FROM %I '
+                           'UNION SELECT (date_trunc(''month'', LOCALTIMESTAMP) + n * interval ''1 month'')::date '
+                           'FROM generate_series(0, $1) n ORDER BY 1',
+                           partition_column(v_table), v_table || '_default')
+            USING p_monthsAhead
+        LOOP
+            IF create_month_partition(v_table, v_month) THEN
+                v_created := v_created + 1;
+            END IF;
+        END LOOP;
+    END LOOP;
+    RETURN v_created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches the monthly partitions of Orders or ProductUpdates that end on or
+-- before p_before. They stay in the database as plain tables, to be dumped
+-- and dropped, and are no longer read by queries on the parent.
+--
+-- Returns the names of the detached partitions.
+CREATE OR REPLACE FUNCTION archive_partitions(p_table text, p_before date) RETURNS SETOF text AS $$
+DECLARE
+    v_parent text := lower(p_table);
+    v_name text;
+    v_month date;
+BEGIN
+    PERFORM partition_column(p_table);
+    FOR v_name IN
+        SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+         WHERE i.inhparent = v_parent::regclass AND c.relname ~ ('^' || v_parent || '_[0-9]{4}_[0-9]{2}$')
+         ORDER BY c.relname
+    LOOP
+        v_month := to_date(right(v_name, 7), 'YYYY_MM');
+        IF v_month + interval '1 month' <= p_before THEN
+            EXECUTE format('ALTER TABLE %I DETACH PARTITION %I', v_parent, v_name);
+            RETURN NEXT v_name;
+        END IF;
+    END LOOP;
+END;
+$$ LANGUAGE plpgsql;
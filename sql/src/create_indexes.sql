@@ -0,0 +1,25 @@
+-- indexes on Orders and ProductUpdates are created on every partition
+
+-- newest updates per store, read by the recent updates report
+CREATE INDEX ProductUpdates_storeID_updatedOn_idx ON ProductUpdates (storeID, updatedOn DESC);
+
+-- newest orders per customer, read by the recent orders report
+CREATE INDEX Orders_customerID_orderTime_idx ON Orders (customerID, orderTime DESC);
+
+-- top products and customers per store, read by the popularity reports
+CREATE INDEX StoreProductSales_storeID_totalUnits_idx ON StoreProductSales (storeID, totalUnits DESC);
+CREATE INDEX StoreCustomerOrders_storeID_orderCount_idx ON StoreCustomerOrders (storeID, orderCount DESC);
+
+-- keyset pagination of a store's orders on (orderTime, orderNumber)
+CREATE INDEX Orders_storeID_orderTime_orderNumber_idx ON Orders (storeID, orderTime, orderNumber);
+
+-- credential lookup in LogIn
+CREATE INDEX Users_name_password_idx ON Users (name, password);
+
+-- stores run by a manager, used by every manager report
+CREATE INDEX Store_managerID_idx ON Store (managerID);
+
+-- nearest stores first, and the stores that have a product in stock, read
+-- by the product search
+CREATE INDEX Store_location_idx ON Store USING gist (point(latitude, longitude));
+CREATE INDEX Product_productName_inStock_idx ON Product (productName, storeID) WHERE numberOfUnits > 0;
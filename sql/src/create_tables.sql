@@ -5,6 +5,8 @@ DROP TABLE IF EXISTS Warehouse CASCADE;
 DROP TABLE IF EXISTS Orders CASCADE;
 DROP TABLE IF EXISTS ProductSupplyRequests CASCADE;
 DROP TABLE IF EXISTS ProductUpdates CASCADE;
+DROP TABLE IF EXISTS StoreProductSales CASCADE;
+DROP TABLE IF EXISTS StoreCustomerOrders CASCADE;
 
 CREATE TABLE Users ( userID serial,
                      name char(50) NOT NULL,
@@ -41,6 +43,12 @@ CREATE TABLE Warehouse ( WarehouseID integer,
                          longitude decimal(9,6)  NOT NULL,
                          PRIMARY KEY(WarehouseID));
 
+-- Orders and ProductUpdates are partitioned by month of orderTime and
+-- updatedOn, so queries on recent rows only touch recent partitions and old
+-- months can be detached for archival. The monthly partitions are created
+-- by partition_maintenance() (see create_functions.sql); rows no monthly
+-- partition covers go to the default partition until it runs. The primary
+-- keys include the partition key, as PostgreSQL requires.
 CREATE TABLE Orders ( 
 					 orderNumber serial NOT NULL,       
 					 customerID integer NOT NULL,
@@ -48,10 +56,12 @@ CREATE TABLE Orders (
                      productName char(30) NOT NULL, 
                      unitsOrdered integer NOT NULL, 
                      orderTime timestamp NOT NULL,
-                     PRIMARY KEY(orderNumber),
+                     PRIMARY KEY(orderNumber, orderTime),
                      FOREIGN KEY(customerID) REFERENCES Users(userID),
                      FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
-);
+) PARTITION BY RANGE (orderTime);
+
+CREATE TABLE Orders_default PARTITION OF Orders DEFAULT;
 
 CREATE TABLE ProductSupplyRequests (  
 							   requestNumber serial NOT NULL,
@@ -72,7 +82,26 @@ CREATE TABLE ProductUpdates (
                         	storeID integer NOT NULL,
                        		productName char(30) NOT NULL, 
                             updatedOn timestamp NOT NULL,
-                        	PRIMARY KEY(updateNumber),
+                        	PRIMARY KEY(updateNumber, updatedOn),
                         	FOREIGN KEY(managerID) REFERENCES Users(userID),
                         	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+) PARTITION BY RANGE (updatedOn);
+
+CREATE TABLE ProductUpdates_default PARTITION OF ProductUpdates DEFAULT;
+
+-- Rollups of Orders kept up to date by the orders_rollup trigger
+-- (see create_functions.sql), so the popularity reports never aggregate
+-- the order history. Rebuild them with rebuild_rollups().
+CREATE TABLE StoreProductSales (
+                            storeID integer NOT NULL,
+                            productName char(30) NOT NULL,
+                            totalUnits bigint NOT NULL,
+                            PRIMARY KEY(storeID, productName)
+);
+
+CREATE TABLE StoreCustomerOrders (
+                            storeID integer NOT NULL,
+                            customerID integer NOT NULL,
+                            orderCount bigint NOT NULL,
+                            PRIMARY KEY(storeID, customerID)
 );
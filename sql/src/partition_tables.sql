@@ -0,0 +1,90 @@
+-- Moves the rows of a database created before Orders and ProductUpdates
+-- were partitioned into the partitioned tables of create_tables.sql. Needs
+-- the functions of create_functions.sql. Runs as one transaction, so on any
+-- error the database is left as it was.
+BEGIN;
+
+DO $$
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_partitioned_table WHERE partrelid = 'orders'::regclass) THEN
+        RAISE EXCEPTION 'Orders is already partitioned';
+    END IF;
+END;
+$$;
+
+-- the old tables give up their names, and their sequences, which would
+-- otherwise be dropped with them
+ALTER TABLE Orders RENAME TO Orders_old;
+ALTER TABLE Orders_old RENAME CONSTRAINT orders_pkey TO orders_old_pkey;
+DROP INDEX IF EXISTS Orders_customerID_orderTime_idx;
+DROP INDEX IF EXISTS Orders_storeID_orderTime_orderNumber_idx;
+DROP TRIGGER IF EXISTS orders_rollup ON Orders_old;
+ALTER SEQUENCE orders_orderNumber_seq OWNED BY NONE;
+
+ALTER TABLE ProductUpdates RENAME TO ProductUpdates_old;
+ALTER TABLE ProductUpdates_old RENAME CONSTRAINT productupdates_pkey TO productupdates_old_pkey;
+DROP INDEX IF EXISTS ProductUpdates_storeID_updatedOn_idx;
+ALTER SEQUENCE productupdates_updateNumber_seq OWNED BY NONE;
+
+CREATE TABLE Orders ( 
+					 orderNumber integer NOT NULL DEFAULT nextval('orders_orderNumber_seq'),
+					 customerID integer NOT NULL,
+                     storeID integer NOT NULL,
+                     productName char(30) NOT NULL, 
+                     unitsOrdered integer NOT NULL, 
+                     orderTime timestamp NOT NULL,
+                     PRIMARY KEY(orderNumber, orderTime),
+                     FOREIGN KEY(customerID) REFERENCES Users(userID),
+                     FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+) PARTITION BY RANGE (orderTime);
+ALTER SEQUENCE orders_orderNumber_seq OWNED BY Orders.orderNumber;
+
+CREATE TABLE Orders_default PARTITION OF Orders DEFAULT;
+
+CREATE TABLE ProductUpdates (
+	 						updateNumber integer NOT NULL DEFAULT nextval('productupdates_updateNumber_seq'),
+							managerID integer NOT NULL,
+                        	storeID integer NOT NULL,
+                       		productName char(30) NOT NULL, 
+                            updatedOn timestamp NOT NULL,
+                        	PRIMARY KEY(updateNumber, updatedOn),
+                        	FOREIGN KEY(managerID) REFERENCES Users(userID),
+                        	FOREIGN KEY(storeID, productName) REFERENCES Product(storeID, productName)
+) PARTITION BY RANGE (updatedOn);
+ALTER SEQUENCE productupdates_updateNumber_seq OWNED BY ProductUpdates.updateNumber;
+
+CREATE TABLE ProductUpdates_default PARTITION OF ProductUpdates DEFAULT;
+
+-- as in create_indexes.sql
+CREATE INDEX ProductUpdates_storeID_updatedOn_idx ON ProductUpdates (storeID, updatedOn DESC);
+CREATE INDEX Orders_customerID_orderTime_idx ON Orders (customerID, orderTime DESC);
+CREATE INDEX Orders_storeID_orderTime_orderNumber_idx ON Orders (storeID, orderTime, orderNumber);
+
+CREATE TRIGGER orders_rollup AFTER INSERT OR UPDATE OR DELETE ON Orders
+    FOR EACH ROW EXECUTE PROCEDURE orders_rollup();
+
+-- the partitions are created while still empty, so the rows are copied
+-- straight into their month instead of through the default partition
+SELECT create_month_partition('Orders', month)
+  FROM (SELECT DISTINCT date_trunc('month', orderTime)::date AS month FROM Orders_old) months;
+SELECT create_month_partition('ProductUpdates', month)
+  FROM (SELECT DISTINCT date_trunc('month', updatedOn)::date AS month FROM ProductUpdates_old) months;
+
+-- the rollups already count the copied orders
+SET LOCAL amazon.skip_rollup = 'on';
+INSERT INTO Orders (orderNumber, customerID, storeID, productName, unitsOrdered, orderTime)
+SELECT orderNumber, customerID, storeID, productName, unitsOrdered, orderTime FROM Orders_old;
+SET LOCAL amazon.skip_rollup = 'off';
+
+INSERT INTO ProductUpdates (updateNumber, managerID, storeID, productName, updatedOn)
+SELECT updateNumber, managerID, storeID, productName, updatedOn FROM ProductUpdates_old;
+
+DROP TABLE Orders_old;
+DROP TABLE ProductUpdates_old;
+
+SELECT partition_maintenance(3);
+
+ANALYZE Orders;
+ANALYZE ProductUpdates;
+
+COMMIT;